@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for the rules engine and the search.
+ *
+ * Each benchmark is warmed up, then measured over several fixed-length iterations; the score is the mean
+ * throughput with a 99.9% confidence interval, next to the bytes allocated per operation. Results can be
+ * written to a file and compared against a committed baseline, in which case any benchmark that got
+ * slower by more than the threshold is reported and the exit code is 1.
+ *
+ * Usage: Benchmarks [--quick] [--filter text] [--write file] [--baseline file] [--threshold percent]
+ */
+public class Benchmarks {
+    private final static int POSITIONS = 256;
+    private final static long SEED = 20261018L;
+
+    private int warmupIterations = 3;
+    private int measureIterations = 5;
+    private long iterationMs = 1000;
+
+    private static long sink;//results go here so the JIT cannot drop the work
+
+    /**
+     * One invocation of the code under test.
+     */
+    private interface Operation {
+        long run();
+    }
+
+    private static class Result {
+        final String name;
+        final double score;
+        final double error;
+        final double bytesPerOp;
+
+        Result(String name, double score, double error, double bytesPerOp) {
+            this.name = name;
+            this.score = score;
+            this.error = error;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-28s %16.1f +- %12.1f ops/s %10.1f B/op", name, score, error, bytesPerOp);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Benchmarks benchmarks = new Benchmarks();
+        String filter = "";
+        Path write = null;
+        Path baseline = null;
+        double threshold = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick":
+                    benchmarks.warmupIterations = 1;
+                    benchmarks.measureIterations = 3;
+                    benchmarks.iterationMs = 300;
+                    break;
+                case "--filter":
+                    filter = args[++i];
+                    break;
+                case "--write":
+                    write = Paths.get(args[++i]);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(args[++i]);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<Result> results = benchmarks.runAll(filter);
+        if (write != null) {
+            List<String> lines = new ArrayList<>();
+            lines.add("# benchmark ops/s error B/op, " + System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.version") + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+            for (Result result : results)
+                lines.add(String.format(Locale.ROOT, "%s %.1f %.1f %.1f", result.name, result.score, result.error, result.bytesPerOp));
+            Files.write(write, lines, StandardCharsets.UTF_8);
+        }
+        if (baseline != null && compare(results, baseline, threshold))
+            System.exit(1);
+    }
+
+    private List<Result> runAll(String filter) {
+        Random random = new Random(SEED);
+        BoardHandler[] positions = playedPositions(random);
+        List<Result> results = new ArrayList<>();
+
+        //makeMove with a legal single step, taken back after each call
+        int[][] legalStarts = new int[POSITIONS][];
+        int[][] legalEnds = new int[POSITIONS][];
+        int legalCount = 0;
+        long[] moves = new long[BoardHandler.MAX_MOVES];
+        for (BoardHandler position : positions) {
+            int count = position.generateMoves(moves);
+            for (int i = 0; i < count; i++) {
+                if (Integer.bitCount(BoardHandler.moveCaptures(moves[i])) <= 1) {
+                    legalStarts[legalCount] = coordinates(BoardHandler.moveStart(moves[i]));
+                    legalEnds[legalCount] = coordinates(BoardHandler.moveEnd(moves[i]));
+                    positions[legalCount++] = position;
+                    break;
+                }
+            }
+        }
+        int legalPositions = legalCount;
+        int[] next = new int[1];
+        run(results, filter, "makeMove.legal", () -> {
+            int i = next[0]++ % legalPositions;
+            BoardHandler board = positions[i];
+            BoardHandler.UpdateStatus status = board.makeMove(board.getPos(legalStarts[i]), legalStarts[i], legalEnds[i]);
+            board.unmakeMove();
+            return status.opCode;
+        });
+
+        //the same through move, which returns a packed result instead of an UpdateStatus
+        run(results, filter, "move.legal", () -> {
+            int i = next[0]++ % legalPositions;
+            BoardHandler board = positions[i];
+            long result = board.move(board.getPos(legalStarts[i]), legalStarts[i][0], legalStarts[i][1],
+                    legalEnds[i][0], legalEnds[i][1]);
+            board.unmakeMove();
+            return BoardHandler.statusOf(result);
+        });
+
+        //the same with MoveMetrics counting and timing every call
+        MoveMetrics.enable(true);
+        run(results, filter, "makeMove.legal.metrics", () -> {
+            int i = next[0]++ % legalPositions;
+            BoardHandler board = positions[i];
+            BoardHandler.UpdateStatus status = board.makeMove(board.getPos(legalStarts[i]), legalStarts[i], legalEnds[i]);
+            board.unmakeMove();
+            return status.opCode;
+        });
+        MoveMetrics.enable(false);
+
+        //makeMove with inputs it has to reject; a rejected move never changes the board
+        int[][] illegalStarts = new int[POSITIONS][];
+        int[][] illegalEnds = new int[POSITIONS][];
+        BoardHandler[] illegalBoards = new BoardHandler[POSITIONS];
+        for (int found = 0; found < POSITIONS; ) {
+            BoardHandler board = positions[random.nextInt(legalPositions)];
+            int[] start = {random.nextInt(8), random.nextInt(8)};
+            int[] end = {random.nextInt(10) - 1, random.nextInt(10) - 1};
+            BoardHandler probe = new BoardHandler();
+            probe.copyFrom(board);
+            if (probe.makeMove(probe.getPos(start), start, end).opCode < 0) {
+                illegalBoards[found] = board;
+                illegalStarts[found] = start;
+                illegalEnds[found++] = end;
+            }
+        }
+        run(results, filter, "makeMove.illegal", () -> {
+            int i = next[0]++ & (POSITIONS - 1);
+            BoardHandler board = illegalBoards[i];
+            return board.makeMove(board.getPos(illegalStarts[i]), illegalStarts[i], illegalEnds[i]).opCode;
+        });
+        run(results, filter, "move.illegal", () -> {
+            int i = next[0]++ & (POSITIONS - 1);
+            BoardHandler board = illegalBoards[i];
+            return BoardHandler.statusOf(board.move(board.getPos(illegalStarts[i]), illegalStarts[i][0],
+                    illegalStarts[i][1], illegalEnds[i][0], illegalEnds[i][1]));
+        });
+
+        run(results, filter, "generateMoves", () -> positions[next[0]++ % legalPositions].generateMoves(moves));
+
+        BoardHandler start = new BoardHandler();
+        start.newGame();
+        Perft perft = new Perft(true);
+        run(results, filter, "perft.newGame.6", () -> perft.count(start, 6));
+        run(results, filter, "perft.newGame.8", () -> perft.count(start, 8));
+
+        BoardHandler kings = new BoardHandler();
+        kings.setPosition(1 << 13 | 1 << 18, 1 << 1, 1 << 13 | 1 << 18 | 1 << 1, true);
+        run(results, filter, "perft.2kings-1king.8", () -> perft.count(kings, 8));
+        BoardHandler mixed = new BoardHandler();
+        mixed.setPosition(1 << 5 | 1 << 9 | 1 << 14, 1 << 22 | 1 << 26 | 1 << 30, 1 << 9 | 1 << 14 | 1 << 22 | 1 << 26, true);
+        run(results, filter, "perft.3v3-endgame.7", () -> perft.count(mixed, 7));
+
+        //the same rules on the generic 64-bit board, then a 10x10 board with flying kings and maximum capture
+        VariantBoard english = new VariantBoard(Variant.ENGLISH);
+        VariantBoard international = new VariantBoard(Variant.INTERNATIONAL);
+        long[][] variantBuffers = new long[9][VariantBoard.MAX_MOVES];
+        run(results, filter, "perft.variant.english.8", () -> Perft.count(english, 8, variantBuffers));
+        run(results, filter, "perft.international.6", () -> Perft.count(international, 6, variantBuffers));
+
+        //a small table, cleared every time so each search starts cold
+        TranspositionTable table = new TranspositionTable(1);
+        SearchEngine engine = new SearchEngine(table);
+        engine.setMaxDepth(10);
+        run(results, filter, "search.newGame.depth10", () -> {
+            table.clear();
+            return engine.findBestMove(start, Long.MAX_VALUE / 2000000L);
+        });
+
+        //the classic evaluation against a network of 256 first-layer and 32 second-layer units, random weights
+        NnueEvaluator network = new NnueEvaluator(NnueNetwork.random(256, 32, SEED));
+        BoardHandler[] networkPositions = new BoardHandler[legalPositions];
+        long[] firstMoves = new long[legalPositions];
+        for (int i = 0; i < legalPositions; i++) {
+            networkPositions[i] = new BoardHandler();
+            networkPositions[i].setEvaluator(network);
+            networkPositions[i].copyFrom(positions[i]);
+            positions[i].generateMoves(moves);
+            firstMoves[i] = moves[0];
+        }
+        run(results, filter, "eval.classic", () -> Evaluator.DEFAULT.evaluate(positions[next[0]++ % legalPositions]));
+        run(results, filter, "eval.nnue.256", () -> network.evaluate(networkPositions[next[0]++ % legalPositions]));
+
+        //playMove and unmakeMove, then the same with the board keeping the network's accumulators
+        run(results, filter, "playMove.unmake", () -> {
+            int i = next[0]++ % legalPositions;
+            positions[i].playMove(firstMoves[i]);
+            positions[i].unmakeMove();
+            return i;
+        });
+        run(results, filter, "playMove.unmake.nnue.256", () -> {
+            int i = next[0]++ % legalPositions;
+            networkPositions[i].playMove(firstMoves[i]);
+            networkPositions[i].unmakeMove();
+            return i;
+        });
+
+        SearchEngine networkEngine = new SearchEngine(table);
+        networkEngine.setMaxDepth(10);
+        networkEngine.setEvaluator(network);
+        run(results, filter, "search.newGame.depth10.nnue", () -> {
+            table.clear();
+            return networkEngine.findBestMove(start, Long.MAX_VALUE / 2000000L);
+        });
+        return results;
+    }
+
+    /**
+     * Plays random games from the start and keeps one position from each.
+     */
+    private static BoardHandler[] playedPositions(Random random) {
+        BoardHandler[] positions = new BoardHandler[POSITIONS];
+        long[] moves = new long[BoardHandler.MAX_MOVES];
+        for (int i = 0; i < POSITIONS; ) {
+            BoardHandler board = new BoardHandler();
+            board.newGame();
+            int plies = 4 + random.nextInt(40);
+            for (int ply = 0; ply < plies; ply++) {
+                int count = board.generateMoves(moves);
+                if (count == 0)
+                    break;
+                board.playMove(moves[random.nextInt(count)]);
+            }
+            if (board.generateMoves(moves) > 0) {
+                BoardHandler position = new BoardHandler();
+                position.copyFrom(board);
+                positions[i++] = position;
+            }
+        }
+        return positions;
+    }
+
+    private static int[] coordinates(int sq) {
+        return new int[]{BoardHandler.rowOf(sq), BoardHandler.colOf(sq)};
+    }
+
+    private void run(List<Result> results, String filter, String name, Operation operation) {
+        if (!name.contains(filter))
+            return;
+        for (int i = 0; i < warmupIterations; i++)
+            iteration(operation);
+
+        double[] scores = new double[measureIterations];
+        long operations = 0;
+        long allocated = allocatedBytes();
+        for (int i = 0; i < measureIterations; i++) {
+            long start = System.nanoTime();
+            long count = iteration(operation);
+            scores[i] = count * 1e9 / (System.nanoTime() - start);
+            operations += count;
+        }
+        allocated = allocatedBytes() - allocated;
+
+        double mean = 0;
+        for (double score : scores)
+            mean += score;
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores)
+            variance += (score - mean) * (score - mean);
+        variance /= Math.max(1, scores.length - 1);
+        //half-width of the 99.9% interval, normal approximation like JMH's summary for few iterations
+        double error = 3.29 * Math.sqrt(variance / scores.length);
+
+        Result result = new Result(name, mean, error, allocated < 0 ? Double.NaN : (double) allocated / operations);
+        System.out.println(result);
+        results.add(result);
+    }
+
+    /**
+     * Calls the operation in growing batches until the iteration time is used up.
+     *
+     * @return number of calls made
+     */
+    private long iteration(Operation operation) {
+        long end = System.nanoTime() + iterationMs * 1000000L;
+        long count = 0;
+        int batch = 1;
+        long local = 0;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < batch; i++)
+                local += operation.run();
+            count += batch;
+            if (batch < 4096)
+                batch <<= 1;
+        }
+        sink += local;
+        return count;
+    }
+
+    /**
+     * @return bytes allocated so far by this thread, or -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    /**
+     * Prints each result next to its baseline.
+     *
+     * @return true if any benchmark got slower than the baseline by more than the threshold
+     */
+    private static boolean compare(List<Result> results, Path baseline, double thresholdPercent) throws IOException {
+        Map<String, Double> expected = new HashMap<>();
+        for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.trim().isEmpty())
+                continue;
+            String[] fields = line.trim().split("\\s+");
+            expected.put(fields[0], Double.parseDouble(fields[1]));
+        }
+
+        boolean regressed = false;
+        System.out.println();
+        System.out.println("Compared with " + baseline + ":");
+        for (Result result : results) {
+            Double before = expected.get(result.name);
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "%-28s no baseline%n", result.name);
+                continue;
+            }
+            double change = (result.score - before) / before * 100;
+            boolean slower = change < -thresholdPercent;
+            regressed |= slower;
+            System.out.printf(Locale.ROOT, "%-28s %+7.1f%%%s%n", result.name, change, slower ? "  REGRESSION" : "");
+        }
+        return regressed;
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps many games open on a GameServer and plays random legal moves in all of them.
+ *
+ * Starts a server in this JVM unless a host is given. Each client connection owns an equal share of the
+ * games and cycles through them, asking for the legal moves and playing one; finished games are replaced
+ * so the number of live games stays constant. Prints moves per second, live games and heap in use.
+ *
+ * Usage: ServerLoadTest [--host h] [--port n] [--games n] [--connections n] [--seconds n]
+ */
+public class ServerLoadTest {
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        int port = GameServer.DEFAULT_PORT;
+        int games = 10000;
+        int connections = 8;
+        int seconds = 20;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--host":
+                    host = args[i + 1];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--connections":
+                    connections = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        GameServer server = null;
+        if (host == null) {
+            server = new GameServer(0, Runtime.getRuntime().availableProcessors(), games * 2, 600000);
+            server.start();
+            host = "localhost";
+            port = server.getPort();
+        }
+
+        AtomicLong moves = new AtomicLong();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        Thread[] clients = new Thread[connections];
+        for (int c = 0; c < connections; c++) {
+            int share = games / connections + (c < games % connections ? 1 : 0);
+            String clientHost = host;
+            int clientPort = port;
+            long seed = c;
+            clients[c] = new Thread(() -> {
+                try {
+                    play(clientHost, clientPort, share, end, moves, new Random(seed));
+                } catch (IOException e) {
+                    System.err.println("Client failed: " + e);
+                }
+            });
+            clients[c].start();
+        }
+
+        long last = 0;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(1000);
+            long total = moves.get();
+            Runtime runtime = Runtime.getRuntime();
+            System.out.printf("%d moves/s, %s live games, %d MB heap in use%n", total - last,
+                    server == null ? "?" : String.valueOf(server.getSessionCount()),
+                    (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+            last = total;
+        }
+        for (Thread client : clients)
+            client.join();
+        System.out.println(moves.get() + " moves in " + seconds + " s");
+        if (server != null)
+            server.close();
+    }
+
+    private static void play(String host, int port, int games, long end, AtomicLong moves, Random random) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+
+            long[] ids = new long[games];
+            for (int i = 0; i < games; i++)
+                ids[i] = newGame(in, out);
+
+            while (System.currentTimeMillis() < end) {
+                for (int i = 0; i < games && System.currentTimeMillis() < end; i++) {
+                    String list = call(in, out, "MOVES " + ids[i]).substring(2).trim();
+                    if (list.isEmpty()) {
+                        call(in, out, "CLOSE " + ids[i]);
+                        ids[i] = newGame(in, out);
+                        continue;
+                    }
+                    String[] choices = list.split(", ");
+                    String[] move = choices[random.nextInt(choices.length)].split(" ");
+                    String reply = call(in, out, "PLAY " + ids[i] + " " + move[0] + " " + move[1] + " " + move[3] + " " + move[4]);
+                    if (!reply.equals("OK"))
+                        throw new IOException("Move refused: " + reply);
+                    moves.incrementAndGet();
+                }
+            }
+            call(in, out, "QUIT");
+        }
+    }
+
+    private static long newGame(BufferedReader in, Writer out) throws IOException {
+        String reply = call(in, out, "NEW");
+        if (!reply.startsWith("OK "))
+            throw new IOException("Could not start a game: " + reply);
+        return Long.parseLong(reply.substring(3));
+    }
+
+    private static String call(BufferedReader in, Writer out, String command) throws IOException {
+        out.write(command);
+        out.write('\n');
+        out.flush();
+        if (command.equals("QUIT"))
+            return "";
+        String reply = in.readLine();
+        if (reply == null)
+            throw new IOException("Server closed the connection");
+        return reply;
+    }
+}
@@ -1,14 +1,14 @@
-import java.util.Arrays;
-
-
 /**
  * A backend for a game of checkers/draughts.
+ *
+ * The board is stored as three bitboards over the 32 playable squares. Square {@code s} sits on
+ * row {@code s / 4}; on even rows it is column {@code 2 * (s % 4) + 1}, on odd rows column
+ * {@code 2 * (s % 4)}, so square 0 is [0, 1] and square 31 is [7, 6].
  */
 public class BoardHandler {
-    private int board[][];
-
-    //TODO: force global jump
-    //TODO: force jump with same piece on double jump
+    private int blacks;
+    private int whites;
+    private int kings;
 
     //Color codes. Indicates the type of piece at a location
     final static int UNOCCUPIED = 0;
@@ -27,35 +27,312 @@ public class BoardHandler {
     final static int normal = 0;
     final static int goAgain = 1;
 
-    private final static int[] badPos = new int[]{-1, -1};
+    /*
+    Results of move() are packed into a long:
+    bits 0 - 31   square captured by the step, if any
+    bits 32 - 39  reason the call ended with, one of the constants below
+     */
+    final static int NOT_YOUR_TURN = 0;
+    final static int START_OFF_BOARD = 1;
+    final static int END_OFF_BOARD = 2;
+    final static int NOT_YOUR_PIECE = 3;
+    final static int OCCUPIED = 4;
+    final static int INVALID_PIECE = 5;
+    final static int WRONG_JUMPER = 6;
+    final static int MUST_JUMP = 7;
+    final static int STEPPED = 8;
+    final static int JUMPED = 9;
+    final static int JUMP_AGAIN = 10;
+    final static int NOT_ALLOWED = 11;
+    final static int GAME_OVER = 12;//never from move() itself; GameSession answers it once the game has ended
+
+    //Game states, see getGameState()
+    final static int IN_PROGRESS = 0;
+    final static int BLACK_WON = 1;
+    final static int WHITE_WON = 2;
+    final static int REPETITION_DRAW = 3;//the same position with the same side to move for the third time
+    final static int NO_PROGRESS_DRAW = 4;//drawPlies plies without a capture or a man moving
+    final static int DEFAULT_DRAW_PLIES = 80;
+
+    //status code and message of each reason
+    private final static int[] REASON_STATUS = {insufficientPermissions, outOfBounds, outOfBounds, tooFar, usedSpace,
+            insufficientPermissions, forceJump, forceJump, normal, normal, goAgain, tooFar, insufficientPermissions};
+    private final static String[] REASON_MESSAGES = {
+            "It is not your turn.",
+            "Pieces must be on the board to be used.",
+            "Pieces may not be placed outside of the board.",
+            "You do not have a piece there.",
+            "That space is already occupied.",
+            "Invalid piece selected.",
+            "You have to move the piece you originally jumped with.",
+            "You must jump your opponent.",
+            "You moved to an adjacent tile.",
+            "You jumped your opponent.",
+            "You jumped your opponent. You can jump your opponent again.",
+            "You are not allowed to move there.",
+            "The game is over."};
+
+    //Directions, in the order the old adjacency arrays used
+    final static int UP_LEFT = 0;
+    final static int DOWN_LEFT = 1;
+    final static int DOWN_RIGHT = 2;
+    final static int UP_RIGHT = 3;
+
+    //Direction sets, one bit per direction
+    final static int BLACK_DIRECTIONS = 1 << DOWN_LEFT | 1 << DOWN_RIGHT;
+    final static int WHITE_DIRECTIONS = 1 << UP_LEFT | 1 << UP_RIGHT;
+    final static int KING_DIRECTIONS = BLACK_DIRECTIONS | WHITE_DIRECTIONS;
+
+    //Square masks
+    final static int EVEN_ROWS = 0x0F0F0F0F;
+    final static int ODD_ROWS = 0xF0F0F0F0;
+    private final static int EVEN_ROWS_NOT_RIGHT = 0x07070707;//even rows without column 7
+    private final static int ODD_ROWS_NOT_LEFT = 0xE0E0E0E0;//odd rows without column 0
+    final static int BLACK_KING_ROW = 0xF0000000;//row 7
+    final static int WHITE_KING_ROW = 0x0000000F;//row 0
+
+    /*
+    Per-square lookups, indexed sq * 4 + direction:
+    NEIGHBOR      the square one step away, OFF_BOARD past the edge
+    JUMP          the square a jump lands on, OFF_BOARD past the edge
+    NEIGHBOR_BIT  the same squares as masks, 0 past the edge, so they can be ANDed without a check
+    JUMP_BIT
+     */
+    final static int OFF_BOARD = -1;
+    final static int[] NEIGHBOR = new int[32 * 4];
+    final static int[] JUMP = new int[32 * 4];
+    final static int[] NEIGHBOR_BIT = new int[32 * 4];
+    final static int[] JUMP_BIT = new int[32 * 4];
+
+    static {
+        //row and column steps of UP_LEFT, DOWN_LEFT, DOWN_RIGHT and UP_RIGHT
+        int[] rowSteps = {-1, 1, 1, -1};
+        int[] colSteps = {-1, -1, 1, 1};
+        for (int sq = 0; sq < 32; sq++) {
+            for (int d = 0; d < 4; d++) {
+                int i = sq * 4 + d;
+                NEIGHBOR[i] = square(rowOf(sq) + rowSteps[d], colOf(sq) + colSteps[d]);
+                JUMP[i] = square(rowOf(sq) + 2 * rowSteps[d], colOf(sq) + 2 * colSteps[d]);
+                NEIGHBOR_BIT[i] = NEIGHBOR[i] == OFF_BOARD ? 0 : 1 << NEIGHBOR[i];
+                JUMP_BIT[i] = JUMP[i] == OFF_BOARD ? 0 : 1 << JUMP[i];
+            }
+        }
+    }
+
+    /*
+    Generated moves are packed into a long:
+    bits 0 - 31   squares captured along the way
+    bits 32 - 36  start square
+    bits 37 - 41  end square
+     */
+    final static int MAX_MOVES = 128;//more than any reachable position has
+
+    //Zobrist keys, indexed by color code and square
+    private final static long[][] PIECE_KEYS = new long[5][32];
+    private final static long[] FORCE_KEYS = new long[32];
+    private final static long WHITE_TO_MOVE_KEY;
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int piece = BLACK; piece <= WHITE_KING; piece++) {
+            for (int sq = 0; sq < 32; sq++)
+                PIECE_KEYS[piece][sq] = seed = splitMix(seed);
+        }
+        for (int sq = 0; sq < 32; sq++)
+            FORCE_KEYS[sq] = seed = splitMix(seed);
+        WHITE_TO_MOVE_KEY = splitMix(seed);
+    }
 
     private boolean isBlackTurn = true;
     private int numWhites;
     private int numBlacks;
 
     private boolean isJumpForced;
-    private int[] forcePos;
+    private int forceSquare = -1;
+
+    private long hash;//kept up to date by every change to the position
+
+    //Material and square values of the pieces, black positive, kept up to date like the hash
+    private int[][] pieceSquare = Evaluator.DEFAULT.getPieceSquare();
+    private int pieceSquareScore;
+
+    //first layer of the evaluation network, kept up to date like the hash; null for the classic evaluation
+    private NnueAccumulator accumulator;
+
+    /*
+    Game-termination state. The hash at the start of every turn goes into a ring buffer of the last
+    HISTORY_SIZE turns, and pliesSinceProgress counts turns since the last capture or man move. Neither
+    can be reversed, so no earlier position can come back and a repetition scan stops there.
+     */
+    final static int HISTORY_SIZE = 256;//a power of two
+    private final long[] history = new long[HISTORY_SIZE];
+    private int historySize;//turns recorded since the position was set up
+    private int pliesSinceProgress;
+    private int drawPlies = DEFAULT_DRAW_PLIES;
+
+    /*
+    Undo stack, one entry per move or makeMove step. Info layout:
+    bits 0 - 31   captured squares that held kings
+    bit 32        the moving piece was crowned
+    bit 33        black was to move
+    bit 34        a multi-jump was being forced
+    bits 35 - 39  square of the piece that was forced to jump
+    bits 40 - 63  piece-square score before the move, signed
+     */
+    private final static int UNDO_CAPACITY = 32;//grows by doubling; a search needs about its depth
+    private final static long PROMOTED = 1L << 32;
+    private final static long BLACK_TO_MOVE = 1L << 33;
+    private final static long JUMP_FORCED = 1L << 34;
+    private long[] undoMoves = new long[UNDO_CAPACITY];
+    private long[] undoInfo = new long[UNDO_CAPACITY];
+    private long[] undoHashes = new long[UNDO_CAPACITY];
+    private long[] undoCounters = new long[UNDO_CAPACITY];//historySize << 32 | pliesSinceProgress
+    private int undoSize;
 
     void customGame() {
-        board = new int[8][8];
+        clear();
         numWhites = 2;
         numBlacks = 1;
 
-        board[5][4] = BLACK;
+        blacks |= 1 << square(5, 4);
+
+        whites |= 1 << square(6, 1);
+
+        whites |= 1 << square(6, 3);
+        hash = computeHash();
+        pieceSquareScore = computePieceSquareScore();
+        refreshAccumulator();
+        resetHistory();
+    }
 
-        board[6][1] = WHITE;
+    /**
+     * Sets up an arbitrary position, for example an endgame to study.
+     *
+     * @param blacks      squares holding black pieces
+     * @param whites      squares holding white pieces
+     * @param kings       squares holding kings of either color
+     * @param blackToMove true if black is to move
+     */
+    void setPosition(int blacks, int whites, int kings, boolean blackToMove) {
+        setPosition(blacks, whites, kings, blackToMove, -1);
+    }
 
-        board[6][3] = WHITE;
+    /**
+     * Sets up an arbitrary position in the middle of a multi-jump.
+     *
+     * @param forceSquare square of the piece that has to keep jumping, or -1 if none
+     */
+    void setPosition(int blacks, int whites, int kings, boolean blackToMove, int forceSquare) {
+        clear();
+        this.blacks = blacks;
+        this.whites = whites & ~blacks;
+        this.kings = kings & (blacks | whites);
+        numBlacks = Integer.bitCount(this.blacks);
+        numWhites = Integer.bitCount(this.whites);
+        isBlackTurn = blackToMove;
+        isJumpForced = forceSquare >= 0;
+        this.forceSquare = isJumpForced ? forceSquare : -1;
+        hash = computeHash();
+        pieceSquareScore = computePieceSquareScore();
+        refreshAccumulator();
+        resetHistory();
+    }
+
+    /**
+     * Sets up a position from a PDN FEN tag such as "B:W21,22,K30:B1,2,3". Squares use the standard
+     * numbering, 1 - 32 starting at the top-left playable square, which is square index + 1 here.
+     * Ranges like "1-12" are accepted.
+     *
+     * @throws IllegalArgumentException if the FEN cannot be read
+     */
+    void setFen(String fen) {
+        String[] fields = fen.trim().replaceAll("^\\[FEN\\s+\"|\"\\]$|\\.$", "").split(":");
+        if (fields.length < 1 || !(fields[0].equals("B") || fields[0].equals("W")))
+            throw new IllegalArgumentException("FEN must start with the side to move: " + fen);
+        int black = 0;
+        int white = 0;
+        int king = 0;
+        for (int i = 1; i < fields.length; i++) {
+            String field = fields[i].trim();
+            if (field.isEmpty())
+                continue;
+            boolean isBlack = field.charAt(0) == 'B';
+            if (!isBlack && field.charAt(0) != 'W')
+                throw new IllegalArgumentException("Unknown color in FEN: " + field);
+            for (String token : field.substring(1).split(",")) {
+                token = token.trim();
+                if (token.isEmpty())
+                    continue;
+                boolean isKing = token.charAt(0) == 'K';
+                if (isKing)
+                    token = token.substring(1);
+                int dash = token.indexOf('-');
+                int first;
+                int last;
+                try {
+                    first = Integer.parseInt(dash < 0 ? token : token.substring(0, dash));
+                    last = dash < 0 ? first : Integer.parseInt(token.substring(dash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad square in FEN: " + token, e);
+                }
+                if (first < 1 || last > 32 || first > last)
+                    throw new IllegalArgumentException("Square out of range in FEN: " + token);
+                for (int number = first; number <= last; number++) {
+                    int bit = 1 << (number - 1);
+                    if (isBlack)
+                        black |= bit;
+                    else
+                        white |= bit;
+                    if (isKing)
+                        king |= bit;
+                }
+            }
+        }
+        setPosition(black, white, king, fields[0].equals("B"));
+    }
+
+    /**
+     * @return the position as a PDN FEN tag value, see {@link #setFen(String)}
+     */
+    String getFen() {
+        StringBuilder fen = new StringBuilder(isBlackTurn ? "B" : "W");
+        fen.append(":W");
+        appendFenSquares(fen, whites);
+        fen.append(":B");
+        appendFenSquares(fen, blacks);
+        return fen.toString();
+    }
+
+    private void appendFenSquares(StringBuilder fen, int pieces) {
+        boolean first = true;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int sq = Integer.numberOfTrailingZeros(pieces);
+            if (!first)
+                fen.append(',');
+            if ((kings & 1 << sq) != 0)
+                fen.append('K');
+            fen.append(sq + 1);
+            first = false;
+        }
+    }
+
+    private void clear() {
+        blacks = 0;
+        whites = 0;
+        kings = 0;
+        isBlackTurn = true;
+        isJumpForced = false;
+        forceSquare = -1;
+        undoSize = 0;
     }
 
     /**
      * This is called to create a new game.
      */
     public void newGame() {
-        board = new int[8][8];
+        clear();
         numBlacks = 12;
         numWhites = 12;
-        isJumpForced = false;
 
         /*
         Starting layout:
@@ -75,25 +352,21 @@ public class BoardHandler {
         NOTE: BLACK positions INCREASE while they go down the board;
         WHITE positions DECREASE while they go up the board.
          */
-        board[0][1] = board[0][3] = board[0][5] = board[0][7] = BLACK;
-        board[1][0] = board[1][2] = board[1][4] = board[1][6] = BLACK;
-        board[2][1] = board[2][3] = board[2][5] = board[2][7] = BLACK;
-        board[5][0] = board[5][2] = board[5][4] = board[5][6] = WHITE;
-        board[6][1] = board[6][3] = board[6][5] = board[6][7] = WHITE;
-        board[7][0] = board[7][2] = board[7][4] = board[7][6] = WHITE;
+        blacks = 0x00000FFF;//rows 0 - 2
+        whites = 0xFFF00000;//rows 5 - 7
+        hash = computeHash();
+        pieceSquareScore = computePieceSquareScore();
+        refreshAccumulator();
+        resetHistory();
     }
 
     public UpdateStatus makeMove(int color, int startRow, int startCol, int endRow, int endCol) {
-        int[] startPos = new int[]{startRow, startCol};
-        int[] endPos = new int[]{endRow, endCol};
-        return makeMove(color, startPos, endPos);
+        long result = move(color, startRow, startCol, endRow, endCol);
+        return new UpdateStatus(statusOf(result), messageOf(result));
     }
 
     /**
-     * Takes in the starting and ending coordinates for a turn and determines if they are valid.
-     * Checking the validity of the move involves checking if the piece is the correct color.
-     * If end position is not in the set of all single moves or the set of all single jumps,
-     * move fails.
+     * Same as {@link #move(int, int, int, int, int)}, with the result wrapped in an UpdateStatus.
      *
      * @param color
      * @param startPos
@@ -101,166 +374,529 @@ public class BoardHandler {
      * @return
      */
     public UpdateStatus makeMove(int color, int[] startPos, int[] endPos) {
-        String status = null;
+        return makeMove(color, startPos[0], startPos[1], endPos[0], endPos[1]);
+    }
+
+    /**
+     * Takes in the starting and ending coordinates for a turn and determines if they are valid.
+     * Checking the validity of the move involves checking if the piece is the correct color.
+     * If end position is not in the set of all single moves or the set of all single jumps,
+     * move fails. Nothing is allocated; read the result with {@link #statusOf(long)},
+     * {@link #reasonOf(long)}, {@link #capturedOf(long)} and {@link #messageOf(long)}.
+     *
+     * @param color color code of the piece being moved
+     * @return the packed result described above
+     */
+    public long move(int color, int startRow, int startCol, int endRow, int endCol) {
+        if (!MoveMetrics.on())
+            return tryMove(color, startRow, startCol, endRow, endCol);
+        boolean continuation = isJumpForced;
+        long started = System.nanoTime();
+        long result = tryMove(color, startRow, startCol, endRow, endCol);
+        MoveMetrics.recordMakeMove(statusOf(result), System.nanoTime() - started, continuation);
+        return result;
+    }
+
+    private long tryMove(int color, int startRow, int startCol, int endRow, int endCol) {
+        int reason;
 
         //
         if ((colorEquals(color, BLACK) && !isBlackTurn) || (colorEquals(color, WHITE) && isBlackTurn))
-            return new UpdateStatus(insufficientPermissions, "It is not your turn.");
+            return (long) NOT_YOUR_TURN << 32;
 
-        if (!checkBounds(startPos[0]) || !checkBounds(startPos[1]))
-            return new UpdateStatus(outOfBounds, "Pieces must be on the board to be used.");
-        if (!checkBounds(endPos[0]) || !checkBounds(endPos[1]))
-            return new UpdateStatus(outOfBounds, "Pieces may not be placed outside of the board.");
+        if (!checkBounds(startRow) || !checkBounds(startCol))
+            return (long) START_OFF_BOARD << 32;
+        if (!checkBounds(endRow) || !checkBounds(endCol))
+            return (long) END_OFF_BOARD << 32;
 
-        if (!colorEquals(board[startPos[0]][startPos[1]], color)) {
-            return new UpdateStatus(-3, "You do not have a piece there.");
-        }
+        int start = square(startRow, startCol);
+        int end = square(endRow, endCol);
+        if (!colorEquals(start < 0 ? UNOCCUPIED : pieceAt(start), color))
+            return (long) NOT_YOUR_PIECE << 32;
 
-        if (!isEmpty(endPos))
-            return new UpdateStatus(usedSpace, "That space is already occupied.");
+        if (end >= 0 && pieceAt(end) != UNOCCUPIED)
+            return (long) OCCUPIED << 32;
 
-        int[][] adjacents = getAvailableAdjacents(startPos[0], startPos[1]);
-        int[][] singleJumps = getAvailableJumps(startPos[0], startPos[1]);
+        int directions;
         switch (color) {
-            case WHITE:
-                if ((!Arrays.equals(badPos, singleJumps[0]) || !Arrays.equals(badPos, singleJumps[3])) &&
-                        !Arrays.equals(endPos, singleJumps[0]) && !Arrays.equals(endPos, singleJumps[3]))
-                    return new UpdateStatus(forceJump, "You must jump your opponent.");
-                if (Arrays.equals(endPos, adjacents[0])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    status = "You moved to an adjacent tile.";
-
-                } else if (Arrays.equals(endPos, adjacents[3])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    status = "You moved to an adjacent tile.";
-
-                } else if (Arrays.equals(endPos, singleJumps[0])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    board[adjacents[0][0]][adjacents[0][1]] = UNOCCUPIED;
-                    status = "You jumped an opponent.";
-                    numBlacks--;
-                    int[][] nextJumps = getAvailableJumps(singleJumps[0]);
-                    if (endPos[0] == 0) {//handles reaching end of board
-                        board[endPos[0]][endPos[1]] = WHITE_KING;
-                        if (hasAvailableSpaces(nextJumps)) {
-                            return new UpdateStatus(goAgain, status + " You can jump your opponent again.");
-                        }
-                    } else {
-                        if (!Arrays.equals(nextJumps[0], badPos) || !Arrays.equals(nextJumps[3], badPos))
-                            return new UpdateStatus(goAgain, "You can jump your opponent again.");
-                    }
-                } else if (Arrays.equals(endPos, singleJumps[3])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    board[adjacents[3][0]][adjacents[3][1]] = UNOCCUPIED;
-                    status = "You jumped an opponent.";
-                    numBlacks--;
-                    int[][] nextJumps = getAvailableJumps(endPos);
-                    if (endPos[0] == 0) {
-                        board[endPos[0]][endPos[1]] = WHITE_KING;
-                        if (hasAvailableSpaces(nextJumps))
-                            return new UpdateStatus(goAgain, status + "You can jump your opponent again.");
-                    } else {
-                        if (!Arrays.equals(nextJumps[0], badPos) || !Arrays.equals(nextJumps[3], badPos))
-                            return new UpdateStatus(goAgain, "You can jump your opponent again.");
-                    }
-                } else {
-                    return new UpdateStatus(tooFar, "You are not allowed to move there.");
-                }
-                break;
             case BLACK:
-                if ((!Arrays.equals(badPos, singleJumps[1]) || !Arrays.equals(badPos, singleJumps[2])) &&
-                        !Arrays.equals(endPos, singleJumps[1]) && !Arrays.equals(endPos, singleJumps[2]))
-                    return new UpdateStatus(forceJump, "You must jump your opponent.");
-                if (Arrays.equals(endPos, adjacents[1])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    status = "You moved to an adjacent tile.";
-                } else if (Arrays.equals(endPos, adjacents[2])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    status = "You moved to an adjacent tile.";
-                } else if (Arrays.equals(endPos, singleJumps[1])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    board[adjacents[1][0]][adjacents[1][1]] = UNOCCUPIED;
-                    status = "You jumped your opponent.";
-                    numWhites--;
-                    int[][] nextJumps = getAvailableJumps(singleJumps[1]);
-                    if (endPos[0] == 7) {
-                        board[endPos[0]][endPos[1]] = BLACK_KING;
-                        if (hasAvailableSpaces(nextJumps))
-                            return new UpdateStatus(goAgain, status + " You can jump your opponent again.");
-                    } else {
-                        if (!Arrays.equals(nextJumps[1], badPos) || !Arrays.equals(nextJumps[2], badPos))
-                            return new UpdateStatus(goAgain, "You can jump your opponent again.");
-                    }
-                } else if (Arrays.equals(endPos, singleJumps[2])) {
-                    board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                    board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                    board[adjacents[2][0]][adjacents[2][1]] = UNOCCUPIED;
-                    status = "You jumped your opponent.";
-                    numWhites--;
-                    int[][] nextJumps = getAvailableJumps(endPos);
-                    if (endPos[0] == 7) {
-                        board[endPos[0]][endPos[1]] = BLACK_KING;
-                        if (hasAvailableSpaces(nextJumps))
-                            return new UpdateStatus(goAgain, status + " You can jump your opponent again.");
-                    } else {
-                        if (!Arrays.equals(nextJumps[1], badPos) || !Arrays.equals(nextJumps[2], badPos))
-                            return new UpdateStatus(goAgain, status + " You can jump your opponent again.");
-                    }
-                } else {
-                    return new UpdateStatus(tooFar, "You are not allowed to move there.");
-                }
+                directions = BLACK_DIRECTIONS;
+                break;
+            case WHITE:
+                directions = WHITE_DIRECTIONS;
                 break;
             case BLACK_KING:
             case WHITE_KING:
-                boolean jumpsContainsEndPos = false;
-                for (int[] pos : singleJumps) {
-                    if (Arrays.equals(pos, endPos)) {
-                        jumpsContainsEndPos = true;
-                        break;
-                    }
-                }
-                if (hasAvailableSpaces(singleJumps) && !jumpsContainsEndPos)
-                    return new UpdateStatus(forceJump, "You must jump your opponent.");
-                for (int i = 0; i < 4; i++) {
-                    if (Arrays.equals(adjacents[i], endPos)) {
-                        board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                        board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                        status = "You moved to an adjacent tile.";
-                    }
-                    if (Arrays.equals(singleJumps[i], endPos)) {
-                        board[endPos[0]][endPos[1]] = board[startPos[0]][startPos[1]];
-                        board[startPos[0]][startPos[1]] = UNOCCUPIED;
-                        board[adjacents[i][0]][adjacents[i][1]] = UNOCCUPIED;
-                        if (colorEquals(color, BLACK_KING))
-                            numWhites--;
-                        else if (colorEquals(color, WHITE_KING))
-                            numBlacks--;
-                        status = "You jumped your opponent.";
-                        if (hasAvailableSpaces(getAvailableJumps(singleJumps[i])))
-                            return new UpdateStatus(goAgain, status + "You can jump your opponent again.");
-                    }
-                }
-                if (status == null) {
-                    return new UpdateStatus(tooFar, "You are not allowed to move there.");
-                }
+                directions = KING_DIRECTIONS;
                 break;
             default:
-                return new UpdateStatus(insufficientPermissions, "Invalid piece selected.");
+                return (long) INVALID_PIECE << 32;
+        }
+
+        int startBit = 1 << start;
+        int endBit = end < 0 ? 0 : 1 << end;
+        boolean black = colorEquals(color, BLACK);
+        int opponents = black ? whites : blacks;
+        int empty = ~(blacks | whites);
+        int captured = 0;
+
+        if (isJumpForced && start != forceSquare)
+            return (long) WRONG_JUMPER << 32;
+
+        int jumps = jumpsFrom(start, directions, opponents, empty);
+        if ((jumps & endBit) == 0 && getJumpers(black) != 0)
+            return (long) MUST_JUMP << 32;
+
+        if ((stepsFrom(start, directions, empty) & endBit) != 0) {
+            pushUndo(encodeMove(start, end, 0));
+            movePiece(startBit, endBit);
+            reason = STEPPED;
+        } else if ((jumps & endBit) != 0) {
+            for (int d = 0; d < 4; d++) {
+                if ((directions & 1 << d) != 0 && JUMP[start * 4 + d] == end && (NEIGHBOR_BIT[start * 4 + d] & opponents) != 0) {
+                    captured = NEIGHBOR_BIT[start * 4 + d];
+                    break;
+                }
+            }
+            pushUndo(encodeMove(start, end, captured));
+            movePiece(startBit, endBit);
+            removePieces(captured);
+            if (black)
+                numWhites--;
+            else
+                numBlacks--;
+            reason = JUMPED;
+
+            //being crowned ends the turn; otherwise the same piece has to keep jumping while it can
+            boolean crowned = promote(color, endBit);
+            if (crowned)
+                undoInfo[undoSize - 1] |= PROMOTED;
+            if (!crowned && jumpsFrom(end, directions, black ? whites : blacks, ~(blacks | whites)) != 0) {
+                if (isJumpForced)
+                    hash ^= FORCE_KEYS[forceSquare];//the chain goes on from a new square
+                isJumpForced = true;
+                forceSquare = end;
+                hash ^= FORCE_KEYS[end];
+                return (long) JUMP_AGAIN << 32 | captured & 0xFFFFFFFFL;
+            }
+        } else {
+            return (long) NOT_ALLOWED << 32;
+        }
+
+        boolean man = color == BLACK || color == WHITE;
+        if (promote(color, endBit))
+            undoInfo[undoSize - 1] |= PROMOTED;
+        endTurn(man || reason == JUMPED);
+        return (long) reason << 32 | captured & 0xFFFFFFFFL;//Proper exit
+    }
+
+    /**
+     * @return status code of a {@link #move(int, int, int, int, int)} result, one of forceJump - goAgain
+     */
+    static int statusOf(long result) {
+        return REASON_STATUS[reasonOf(result)];
+    }
+
+    /**
+     * @return why a {@link #move(int, int, int, int, int)} call ended the way it did, NOT_YOUR_TURN - GAME_OVER
+     */
+    static int reasonOf(long result) {
+        return (int) (result >>> 32) & 0xFF;
+    }
+
+    /**
+     * @return mask of the square captured by a {@link #move(int, int, int, int, int)} call, 0 if none
+     */
+    static int capturedOf(long result) {
+        return (int) result;
+    }
+
+    /**
+     * @return the message shown to players for a {@link #move(int, int, int, int, int)} result; never built anew
+     */
+    static String messageOf(long result) {
+        return REASON_MESSAGES[reasonOf(result)];
+    }
+
+    /**
+     * @param progress true if the turn captured or moved a man
+     */
+    private void endTurn(boolean progress) {
+        isBlackTurn = !isBlackTurn;
+        hash ^= WHITE_TO_MOVE_KEY;
+        if (isJumpForced) {
+            hash ^= FORCE_KEYS[forceSquare];
+            isJumpForced = false;
+            forceSquare = -1;
+        }
+        pliesSinceProgress = progress ? 0 : pliesSinceProgress + 1;
+        history[historySize++ & (HISTORY_SIZE - 1)] = hash;
+    }
+
+    private void resetHistory() {
+        history[0] = hash;
+        historySize = 1;
+        pliesSinceProgress = 0;
+    }
+
+    /**
+     * @return true if the side to move has a legal move; a few mask operations, no move generation
+     */
+    public boolean hasLegalMove() {
+        return isJumpForced || getJumpers(isBlackTurn) != 0 || getMovers(isBlackTurn) != 0;
+    }
+
+    /**
+     * @return IN_PROGRESS, BLACK_WON or WHITE_WON once the side to move cannot move, or one of the draws.
+     * Always IN_PROGRESS in the middle of a multi-jump.
+     */
+    public int getGameState() {
+        if (isJumpForced)
+            return IN_PROGRESS;
+        if (!hasLegalMove())
+            return isBlackTurn ? WHITE_WON : BLACK_WON;
+        if (pliesSinceProgress >= drawPlies)
+            return NO_PROGRESS_DRAW;
+        if (getRepetitions() >= 3)
+            return REPETITION_DRAW;
+        return IN_PROGRESS;
+    }
+
+    /**
+     * @return how many times the current position has come up with the same side to move, counting
+     * this time; positions more than HISTORY_SIZE plies back are not seen
+     */
+    int getRepetitions() {
+        int count = 1;
+        int reach = Math.min(Math.min(pliesSinceProgress, historySize - 1), HISTORY_SIZE - 1);
+        for (int back = 2; back <= reach; back += 2) {
+            if (history[(historySize - 1 - back) & (HISTORY_SIZE - 1)] == hash)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param drawPlies plies without a capture or a man moving after which the game is drawn
+     */
+    public void setDrawPlies(int drawPlies) {
+        this.drawPlies = drawPlies;
+    }
+
+    public int getDrawPlies() {
+        return drawPlies;
+    }
+
+    public int getPliesSinceProgress() {
+        return pliesSinceProgress;
+    }
+
+    /**
+     * Copies out the hashes a repetition could still match, oldest first and ending with the position at the
+     * start of the current turn.
+     *
+     * @param out buffer of at least HISTORY_SIZE entries
+     * @return number of hashes written
+     */
+    int getRecentHashes(long[] out) {
+        int count = Math.min(Math.min(pliesSinceProgress, historySize - 1), HISTORY_SIZE - 1) + 1;
+        for (int i = 0; i < count; i++)
+            out[i] = history[(historySize - count + i) & (HISTORY_SIZE - 1)];
+        return count;
+    }
+
+    /**
+     * Puts back what {@link #getRecentHashes(long[])} and {@link #getPliesSinceProgress()} returned, after
+     * the position itself has been set up.
+     *
+     * @throws IllegalArgumentException if there are more hashes than plies since the last progress allow
+     */
+    void restoreHistory(long[] hashes, int count, int pliesSinceProgress) {
+        if (count < 1 || count > HISTORY_SIZE || pliesSinceProgress < count - 1)
+            throw new IllegalArgumentException("History of " + count + " turns after " + pliesSinceProgress + " plies");
+        System.arraycopy(hashes, 0, history, 0, count);
+        historySize = count;
+        this.pliesSinceProgress = pliesSinceProgress;
+    }
+
+    /**
+     * Fills the buffer with every legal move for the side to move. When any jump is available only
+     * jumps are generated, each one carried through to the end of its multi-jump chain. In the middle of
+     * a multi-jump made with {@link #move(int, int, int, int, int)} only the rest of that chain is generated.
+     * Nothing is allocated.
+     *
+     * @param moves buffer of at least MAX_MOVES entries, filled from index 0
+     * @return number of moves written
+     */
+    public int generateMoves(long[] moves) {
+        boolean black = isBlackTurn;
+        int own = black ? blacks : whites;
+        int opponents = black ? whites : blacks;
+        int forward = black ? BLACK_DIRECTIONS : WHITE_DIRECTIONS;
+        int empty = ~(blacks | whites);
+        int count = 0;
+
+        int jumpers = isJumpForced ? 1 << forceSquare : getJumpers(black);
+        if (jumpers != 0) {
+            int kingRow = black ? BLACK_KING_ROW : WHITE_KING_ROW;
+            for (; jumpers != 0; jumpers &= jumpers - 1) {
+                int sq = Integer.numberOfTrailingZeros(jumpers);
+                int bit = 1 << sq;
+                if ((kings & bit) != 0)
+                    count = addJumps(moves, count, count, sq, sq, KING_DIRECTIONS, 0, 0, opponents, empty | bit);
+                else
+                    count = addJumps(moves, count, count, sq, sq, forward, kingRow, 0, opponents, empty | bit);
+            }
+            return count;
+        }
+
+        for (int d = 0; d < 4; d++) {
+            int pieces = (forward & 1 << d) != 0 ? own : own & kings;
+            for (int targets = shift(pieces, d) & empty; targets != 0; targets &= targets - 1) {
+                int end = Integer.numberOfTrailingZeros(targets);
+                int start = NEIGHBOR[end * 4 + ((d + 2) & 3)];
+                moves[count++] = encodeMove(start, end, 0);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Extends a jump chain from the given square as far as it goes and records every finished chain.
+     *
+     * @param first    index of the first move generated for this piece, used to drop duplicate king chains
+     * @param kingRow  squares that crown the piece and end the chain, 0 for kings
+     * @param captured opponents already jumped in this chain
+     * @param empty    empty squares, including the square the piece started from
+     */
+    private int addJumps(long[] moves, int count, int first, int start, int sq, int directions, int kingRow,
+                         int captured, int opponents, int empty) {
+        boolean extended = false;
+        for (int d = 0; d < 4; d++) {
+            int i = sq * 4 + d;
+            if ((directions & 1 << d) == 0 || (NEIGHBOR_BIT[i] & opponents & ~captured) == 0)
+                continue;
+            int over = NEIGHBOR_BIT[i];
+            int landing = JUMP_BIT[i] & empty;
+            if (landing == 0)
+                continue;
+            extended = true;
+            int end = JUMP[i];
+            if ((landing & kingRow) != 0)
+                moves[count++] = encodeMove(start, end, captured | over);
+            else
+                count = addJumps(moves, count, first, start, end, directions, kingRow, captured | over, opponents, empty);
         }
+        if (!extended && captured != 0) {
+            long move = encodeMove(start, sq, captured);
+            for (int i = first; i < count; i++) {
+                if (moves[i] == move)
+                    return count;
+            }
+            moves[count++] = move;
+        }
+        return count;
+    }
+
+    /**
+     * Plays a move produced by {@link #generateMoves(long[])}, including its whole jump chain, and passes
+     * the turn. The move is not validated.
+     */
+    public void playMove(long move) {
+        int startBit = 1 << moveStart(move);
+        int endBit = 1 << moveEnd(move);
+        int captured = moveCaptures(move);
+        boolean black = (blacks & startBit) != 0;
+        boolean progress = captured != 0 || (kings & startBit) == 0;
 
-        if (color == BLACK && endPos[0] == 7)
-            board[endPos[0]][endPos[1]] = BLACK_KING;
-        if (color == WHITE && endPos[0] == 0)
-            board[endPos[0]][endPos[1]] = WHITE_KING;
-        this.isBlackTurn = !isBlackTurn;
-        return new UpdateStatus(normal, status);//Proper exit
+        pushUndo(move);
+        movePiece(startBit, endBit);
+        removePieces(captured);
+        if (black)
+            numWhites -= Integer.bitCount(captured);
+        else
+            numBlacks -= Integer.bitCount(captured);
+        if ((endBit & (black ? BLACK_KING_ROW : WHITE_KING_ROW) & ~kings) != 0) {
+            crown(endBit);
+            undoInfo[undoSize - 1] |= PROMOTED;
+        }
+        endTurn(progress);
+    }
+
+    /**
+     * Records what a move is about to change so that {@link #unmakeMove()} can put it back.
+     */
+    private void pushUndo(long move) {
+        if (undoSize == undoMoves.length) {
+            undoMoves = java.util.Arrays.copyOf(undoMoves, undoSize * 2);
+            undoInfo = java.util.Arrays.copyOf(undoInfo, undoSize * 2);
+            undoHashes = java.util.Arrays.copyOf(undoHashes, undoSize * 2);
+            undoCounters = java.util.Arrays.copyOf(undoCounters, undoSize * 2);
+        }
+        long info = kings & moveCaptures(move) & 0xFFFFFFFFL;
+        if (isBlackTurn)
+            info |= BLACK_TO_MOVE;
+        if (isJumpForced)
+            info |= JUMP_FORCED | (long) forceSquare << 35;
+        info |= (long) pieceSquareScore << 40;
+        undoMoves[undoSize] = move;
+        undoInfo[undoSize] = info;
+        undoHashes[undoSize] = hash;
+        undoCounters[undoSize] = (long) historySize << 32 | pliesSinceProgress;
+        if (accumulator != null)
+            accumulator.save(undoSize);
+        undoSize++;
+    }
+
+    /**
+     * Takes back the last move made with {@link #playMove(long)}, or the last step made with
+     * {@link #move(int, int, int, int, int)}. Costs O(captures) and allocates nothing.
+     *
+     * @return false if there is nothing to take back
+     */
+    public boolean unmakeMove() {
+        if (undoSize == 0)
+            return false;
+        undoSize--;
+        long move = undoMoves[undoSize];
+        long info = undoInfo[undoSize];
+        int startBit = 1 << moveStart(move);
+        int endBit = 1 << moveEnd(move);
+        int captured = moveCaptures(move);
+        boolean black = (info & BLACK_TO_MOVE) != 0;
+
+        if ((info & PROMOTED) != 0)
+            kings &= ~endBit;
+        if (startBit != endBit) {
+            int both = startBit | endBit;
+            if (black)
+                blacks ^= both;
+            else
+                whites ^= both;
+            if ((kings & endBit) != 0)
+                kings ^= both;
+        }
+        if (black) {
+            whites |= captured;
+            numWhites += Integer.bitCount(captured);
+        } else {
+            blacks |= captured;
+            numBlacks += Integer.bitCount(captured);
+        }
+        kings |= (int) info;
+
+        isBlackTurn = black;
+        isJumpForced = (info & JUMP_FORCED) != 0;
+        forceSquare = isJumpForced ? (int) (info >>> 35) & 31 : -1;
+        hash = undoHashes[undoSize];
+        pieceSquareScore = (int) (info >> 40);
+        historySize = (int) (undoCounters[undoSize] >>> 32);
+        pliesSinceProgress = (int) undoCounters[undoSize];
+        if (accumulator != null)
+            accumulator.restore(undoSize);
+        return true;
+    }
+
+    /**
+     * @return number of moves that can be taken back
+     */
+    public int getUndoDepth() {
+        return undoSize;
+    }
+
+    /**
+     * Forgets every move that could be taken back, for holders of many long games that never undo.
+     */
+    public void discardUndo() {
+        undoSize = 0;
+    }
+
+    static long encodeMove(int start, int end, int captured) {
+        return (captured & 0xFFFFFFFFL) | (long) start << 32 | (long) end << 37;
+    }
+
+    static int moveStart(long move) {
+        return (int) (move >>> 32) & 31;
+    }
+
+    static int moveEnd(long move) {
+        return (int) (move >>> 37) & 31;
+    }
+
+    static int moveCaptures(long move) {
+        return (int) move;
+    }
+
+    /**
+     * @return the move as "row col - row col", or "row col x row col" for jumps
+     */
+    static String moveToString(long move) {
+        int start = moveStart(move);
+        int end = moveEnd(move);
+        return rowOf(start) + " " + colOf(start) + (moveCaptures(move) != 0 ? " x " : " - ") + rowOf(end) + " " + colOf(end);
+    }
+
+    private void movePiece(int startBit, int endBit) {
+        if (startBit == endBit)
+            return;
+        int piece = pieceAt(Integer.numberOfTrailingZeros(startBit));
+        long[] keys = PIECE_KEYS[piece];
+        int[] values = pieceSquare[piece];
+        hash ^= keys[Integer.numberOfTrailingZeros(startBit)] ^ keys[Integer.numberOfTrailingZeros(endBit)];
+        pieceSquareScore += values[Integer.numberOfTrailingZeros(endBit)] - values[Integer.numberOfTrailingZeros(startBit)];
+        if (accumulator != null)
+            accumulator.move(piece, Integer.numberOfTrailingZeros(startBit), Integer.numberOfTrailingZeros(endBit));
+        int both = startBit | endBit;
+        if ((blacks & startBit) != 0)
+            blacks ^= both;
+        else
+            whites ^= both;
+        if ((kings & startBit) != 0)
+            kings ^= both;
+    }
+
+    private void removePieces(int captured) {
+        for (int left = captured; left != 0; left &= left - 1) {
+            int sq = Integer.numberOfTrailingZeros(left);
+            int piece = pieceAt(sq);
+            hash ^= PIECE_KEYS[piece][sq];
+            pieceSquareScore -= pieceSquare[piece][sq];
+            if (accumulator != null)
+                accumulator.remove(piece, sq);
+        }
+        blacks &= ~captured;
+        whites &= ~captured;
+        kings &= ~captured;
+    }
+
+    /**
+     * Turns the man on the square into a king.
+     */
+    private void crown(int bit) {
+        int sq = Integer.numberOfTrailingZeros(bit);
+        int man = pieceAt(sq);
+        hash ^= PIECE_KEYS[man][sq];
+        pieceSquareScore -= pieceSquare[man][sq];
+        kings |= bit;
+        hash ^= PIECE_KEYS[pieceAt(sq)][sq];
+        pieceSquareScore += pieceSquare[pieceAt(sq)][sq];
+        if (accumulator != null)
+            accumulator.replace(man, pieceAt(sq), sq);
+    }
+
+    /**
+     * Crowns a man that has reached the far row.
+     *
+     * @return true if the piece was crowned by this call
+     */
+    private boolean promote(int color, int bit) {
+        if ((color == BLACK && (bit & BLACK_KING_ROW) != 0) || (color == WHITE && (bit & WHITE_KING_ROW) != 0)) {
+            if ((kings & bit) != 0)
+                return false;
+            crown(bit);
+            return true;
+        }
+        return false;
     }
 
     public UpdateStatus canMovePiece(int color, int[] pos) {
@@ -270,8 +906,7 @@ public class BoardHandler {
             return new UpdateStatus(insufficientPermissions, "You do not have a piece there.");
 
         if (isJumpForced) {
-            //TODO
-            if (!Arrays.equals(pos, forcePos))
+            if (square(pos[0], pos[1]) != forceSquare)
                 return new UpdateStatus(forceJump, "You have to move the piece you originally jumped with.");
         }
         return new UpdateStatus(normal, "Piece is okay to use.");
@@ -280,158 +915,169 @@ public class BoardHandler {
     public int getPos(int[] pos) {
         if (!checkBounds(pos[0]) || !checkBounds(pos[1]))
             return -1;
-        return board[pos[0]][pos[1]];
+        int sq = square(pos[0], pos[1]);
+        return sq < 0 ? UNOCCUPIED : pieceAt(sq);
+    }
+
+    /**
+     * @param sq playable square, 0 - 31
+     * @return color code of the piece on the square
+     */
+    int pieceAt(int sq) {
+        int bit = 1 << sq;
+        if ((blacks & bit) != 0)
+            return (kings & bit) != 0 ? BLACK_KING : BLACK;
+        if ((whites & bit) != 0)
+            return (kings & bit) != 0 ? WHITE_KING : WHITE;
+        return UNOCCUPIED;
     }
 
     private boolean checkBounds(int pos) {
         return pos > -1 && pos < 8;
     }
 
-    private boolean isEmpty(int[] pos){
-        return checkBounds(pos[0]) && checkBounds(pos[1]) && board[pos[0]][pos[1]] == UNOCCUPIED;
+    private boolean isEmpty(int[] pos) {
+        return checkBounds(pos[0]) && checkBounds(pos[1]) && getPos(pos) == UNOCCUPIED;
+    }
+
+    /**
+     * Converts board coordinates to a playable square.
+     *
+     * @return square index 0 - 31, or -1 if the coordinates are off the board or on a light square
+     */
+    static int square(int row, int col) {
+        if (row < 0 || row > 7 || col < 0 || col > 7 || ((row + col) & 1) == 0)
+            return -1;
+        return row * 4 + (col >> 1);
+    }
+
+    static int rowOf(int sq) {
+        return sq >> 2;
     }
 
-    private int[][] getAvailableJumps(int[] pos) {
-        assert pos.length == 2;
-        return getAvailableJumps(pos[0], pos[1]);
+    static int colOf(int sq) {
+        return (sq & 3) * 2 + (~(sq >> 2) & 1);
     }
 
     /**
-     * Finds all jumps one jump away from the given space
+     * Moves every square in the mask one step diagonally. Squares that would leave the board are dropped.
      *
-     * @param row current row of the piece
-     * @param col current column of the piece
-     * @return array of empty locations two spaces away from the piece diagonally, with an opposing piece between.
-     */
-    private int[][] getAvailableJumps(int row, int col) {
-        int[][] solutions = new int[4][2];
-
-        int[] adjacentSpaces = getAdjacents(row, col);
-        for (int i = 0; i < 4; i++) {
-            if (adjacentSpaces[i] != UNOCCUPIED && !colorEquals(adjacentSpaces[i], board[row][col])) {
-                int[] jumpLoc = getAdjacentNo(i, getAdjacentNo(i, row, col));
-                if (checkBounds(jumpLoc[0]) && checkBounds(jumpLoc[1]) && board[jumpLoc[0]][jumpLoc[1]] == UNOCCUPIED) {
-                    solutions[i] = new int[]{jumpLoc[0], jumpLoc[1]};
-                } else {
-                    solutions[i] = badPos;
-                }
-            } else {
-                solutions[i] = badPos;
-            }
+     * @param mask set of squares
+     * @param dir  one of UP_LEFT, DOWN_LEFT, DOWN_RIGHT, UP_RIGHT
+     * @return the shifted set of squares
+     */
+    static int shift(int mask, int dir) {
+        switch (dir) {
+            case UP_LEFT:
+                return (mask & EVEN_ROWS) >>> 4 | (mask & ODD_ROWS_NOT_LEFT) >>> 5;
+            case DOWN_LEFT:
+                return (mask & EVEN_ROWS) << 4 | (mask & ODD_ROWS_NOT_LEFT) << 3;
+            case DOWN_RIGHT:
+                return (mask & EVEN_ROWS_NOT_RIGHT) << 5 | (mask & ODD_ROWS) << 4;
+            case UP_RIGHT:
+                return (mask & EVEN_ROWS_NOT_RIGHT) >>> 3 | (mask & ODD_ROWS) >>> 4;
+            default:
+                return 0;
         }
-        return solutions;
     }
 
     /**
-     * Takes in an array of positions and determines if any are not equal to [-1,-1].
-     *
-     * @param posArray int[][], array of positions
-     * @return true if there's any open spaces, otherwise false.
+     * Shifts the mask back, the opposite way of {@link #shift(int, int)}.
      */
-    private boolean hasAvailableSpaces(int[][] posArray) {
-        for (int[] nextPos : posArray) {
-            if (!Arrays.equals(nextPos, badPos))
-                return true;
-        }
-        return false;
+    static int shiftBack(int mask, int dir) {
+        return shift(mask, (dir + 2) & 3);
     }
 
-    private int[] getAdjacents(int[] loc) {
-        assert loc.length == 2;
-        return getAdjacents(loc[0], loc[1]);
+    /**
+     * @return empty squares one step away from the square, from the lookup tables
+     */
+    private static int stepsFrom(int sq, int directions, int empty) {
+        int targets = 0;
+        for (int d = 0; d < 4; d++) {
+            if ((directions & 1 << d) != 0)
+                targets |= NEIGHBOR_BIT[sq * 4 + d];
+        }
+        return targets & empty;
     }
 
     /**
-     * Returns values of adjacent items
-     * Returns -1 if the value is out of bounds
-     * Returns in order
-     *
-     * @param row of item to check
-     * @param col of item to check
-     * @return values of adjecent items
-     */
-    private int[] getAdjacents(int row, int col) {
-        int[] adjacents = new int[4];
-        if (checkBounds(col - 1)) {
-            if (checkBounds(row - 1))
-                adjacents[0] = board[row - 1][col - 1];
-            else
-                adjacents[0] = -1;
-            if (checkBounds(row + 1))
-                adjacents[1] = board[row + 1][col - 1];
-            else adjacents[1] = -1;
-        } else {
-            adjacents[0] = -1;
-            adjacents[1] = -1;
+     * @return empty squares a jump away from the square with an opponent in between, from the lookup tables
+     */
+    private static int jumpsFrom(int sq, int directions, int opponents, int empty) {
+        int targets = 0;
+        for (int d = 0; d < 4; d++) {
+            if ((directions & 1 << d) != 0 && (NEIGHBOR_BIT[sq * 4 + d] & opponents) != 0)
+                targets |= JUMP_BIT[sq * 4 + d];
         }
-        if (checkBounds(col + 1)) {
-            if (checkBounds(row + 1))
-                adjacents[2] = board[row + 1][col + 1];
-            else
-                adjacents[2] = -1;
-            if (checkBounds(row - 1))
-                adjacents[3] = board[row - 1][col + 1];
-            else adjacents[3] = -1;
-        } else {
-            adjacents[2] = -1;
-            adjacents[3] = -1;
+        return targets & empty;
+    }
+
+    /**
+     * @return empty squares one step away from any piece in the mask
+     */
+    static int stepTargets(int pieces, int directions, int empty) {
+        int targets = 0;
+        for (int d = 0; d < 4; d++) {
+            if ((directions & 1 << d) != 0)
+                targets |= shift(pieces, d);
         }
-        return adjacents;
+        return targets & empty;
     }
 
-    private int[] getAdjacentNo(int pos, int[] loc) {
-        assert loc.length == 2;
-        return getAdjacentNo(pos, loc[0], loc[1]);
+    /**
+     * @return empty squares two steps away from any piece in the mask with an opponent in between
+     */
+    static int jumpTargets(int pieces, int directions, int opponents, int empty) {
+        int targets = 0;
+        for (int d = 0; d < 4; d++) {
+            if ((directions & 1 << d) != 0)
+                targets |= shift(shift(pieces, d) & opponents, d);
+        }
+        return targets & empty;
     }
 
-    private int[] getAdjacentNo(int pos, int row, int col) {
-        switch (pos) {
-            case 0:
-                return new int[]{row - 1, col - 1};
-            case 1:
-                return new int[]{row + 1, col - 1};
-            case 2:
-                return new int[]{row + 1, col + 1};
-            case 3:
-                return new int[]{row - 1, col + 1};
-            default:
-                return new int[]{-1, -1};
+    /**
+     * Finds every piece of the given side that has a single step available.
+     *
+     * @param black true for black's pieces, false for white's
+     * @return mask of pieces that can move
+     */
+    int getMovers(boolean black) {
+        int empty = ~(blacks | whites);
+        int own = black ? blacks : whites;
+        int forward = black ? BLACK_DIRECTIONS : WHITE_DIRECTIONS;
+        int movers = 0;
+        for (int d = 0; d < 4; d++) {
+            int pieces = (forward & 1 << d) != 0 ? own : own & kings;
+            movers |= shiftBack(shift(pieces, d) & empty, d);
         }
+        return movers;
     }
 
-    private int[][] getAvailableAdjacents(int[] pos) {
-        assert pos.length == 2;
-        return getAvailableAdjacents(pos[0], pos[1]);
+    /**
+     * Finds every piece of the given side that has a jump available.
+     *
+     * @param black true for black's pieces, false for white's
+     * @return mask of pieces that can jump
+     */
+    int getJumpers(boolean black) {
+        return jumpers(blacks, whites, kings, black);
     }
 
-    private int[][] getAvailableAdjacents(int row, int col) {
-        int[][] adjacents = new int[4][2];
-        if (checkBounds(col - 1)) {
-            if (checkBounds(row - 1))
-                adjacents[0] = new int[]{row - 1, col - 1};
-            else
-                adjacents[0] = badPos;
-            if (checkBounds(row + 1))
-                adjacents[1] = new int[]{row + 1, col - 1};
-            else
-                adjacents[1] = badPos;
-        } else {
-            adjacents[0] = badPos;
-            adjacents[1] = badPos;
-        }
-        if (checkBounds(col + 1)) {
-            if (checkBounds(row + 1))
-                adjacents[2] = new int[]{row + 1, col + 1};
-            else
-                adjacents[2] = badPos;
-            if (checkBounds(row - 1))
-                adjacents[3] = new int[]{row - 1, col + 1};
-            else adjacents[3] = badPos;
-        } else {
-            adjacents[2] = badPos;
-            adjacents[3] = badPos;
+    /**
+     * @return mask of the pieces of one side that can jump in the given position
+     */
+    static int jumpers(int blacks, int whites, int kings, boolean black) {
+        int empty = ~(blacks | whites);
+        int own = black ? blacks : whites;
+        int opponents = black ? whites : blacks;
+        int forward = black ? BLACK_DIRECTIONS : WHITE_DIRECTIONS;
+        int jumpers = 0;
+        for (int d = 0; d < 4; d++) {
+            int pieces = (forward & 1 << d) != 0 ? own : own & kings;
+            jumpers |= shiftBack(shiftBack(shift(shift(pieces, d) & opponents, d) & empty, d), d);
         }
-        return adjacents;
+        return jumpers;
     }
 
     private boolean colorEquals(int color1, int color2) {
@@ -444,10 +1090,134 @@ public class BoardHandler {
         return isBlackTurn;
     }
 
+    /**
+     * @return square of the piece that has to continue a multi-jump, or -1 if none
+     */
+    int getForceSquare() {
+        return forceSquare;
+    }
+
+    /**
+     * Builds a fresh 8x8 view of the board. Changes to the returned array do not affect the game.
+     *
+     * @return board[row][col] filled with color codes
+     */
     public int[][] getBoard() {
+        int[][] board = new int[8][8];
+        for (int sq = 0; sq < 32; sq++)
+            board[rowOf(sq)][colOf(sq)] = pieceAt(sq);
         return board;
     }
 
+    /**
+     * Makes this board an exact copy of another one without allocating.
+     */
+    void copyFrom(BoardHandler other) {
+        blacks = other.blacks;
+        whites = other.whites;
+        kings = other.kings;
+        isBlackTurn = other.isBlackTurn;
+        numBlacks = other.numBlacks;
+        numWhites = other.numWhites;
+        isJumpForced = other.isJumpForced;
+        forceSquare = other.forceSquare;
+        hash = other.hash;
+        pieceSquareScore = pieceSquare == other.pieceSquare ? other.pieceSquareScore : computePieceSquareScore();
+        refreshAccumulator();
+        System.arraycopy(other.history, 0, history, 0, HISTORY_SIZE);
+        historySize = other.historySize;
+        pliesSinceProgress = other.pliesSinceProgress;
+        drawPlies = other.drawPlies;
+        undoSize = 0;//the copy cannot take back moves
+    }
+
+    /**
+     * Computes the Zobrist hash of the position from scratch. The hash field is normally updated
+     * incrementally instead; this is for setting up positions and for checking.
+     */
+    long computeHash() {
+        long h = isBlackTurn ? 0 : WHITE_TO_MOVE_KEY;
+        if (isJumpForced)
+            h ^= FORCE_KEYS[forceSquare];
+        for (int pieces = blacks | whites; pieces != 0; pieces &= pieces - 1) {
+            int sq = Integer.numberOfTrailingZeros(pieces);
+            h ^= PIECE_KEYS[pieceAt(sq)][sq];
+        }
+        return h;
+    }
+
+    /**
+     * Sums the piece-square table over the board from scratch, like {@link #computeHash()}.
+     */
+    int computePieceSquareScore() {
+        int score = 0;
+        for (int pieces = blacks | whites; pieces != 0; pieces &= pieces - 1) {
+            int sq = Integer.numberOfTrailingZeros(pieces);
+            score += pieceSquare[pieceAt(sq)][sq];
+        }
+        return score;
+    }
+
+    /**
+     * @return material and square values of every piece on the board, black positive
+     */
+    int getPieceSquareScore() {
+        return pieceSquareScore;
+    }
+
+    /**
+     * Switches the piece-square table the board keeps its score with, and the network accumulators if the
+     * evaluator uses a network.
+     */
+    void setEvaluator(Evaluator evaluator) {
+        pieceSquare = evaluator.getPieceSquare();
+        pieceSquareScore = computePieceSquareScore();
+        NnueNetwork network = evaluator.getNetwork();
+        if (network == null)
+            accumulator = null;
+        else if (accumulator == null || accumulator.network != network)
+            accumulator = new NnueAccumulator(network, undoMoves.length);
+        refreshAccumulator();
+    }
+
+    private void refreshAccumulator() {
+        if (accumulator != null)
+            accumulator.refresh(blacks, whites, kings);
+    }
+
+    /**
+     * @return the network accumulators kept for the evaluator, or null if it uses none
+     */
+    NnueAccumulator getAccumulator() {
+        return accumulator;
+    }
+
+    private static long splitMix(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * @return Zobrist hash of the position, including the side to move and any unfinished multi-jump
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    int getBlacks() {
+        return blacks;
+    }
+
+    int getWhites() {
+        return whites;
+    }
+
+    int getKings() {
+        return kings;
+    }
+
     public int getNumBlacks() {
         return numBlacks;
     }
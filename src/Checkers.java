@@ -1,15 +1,74 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 public class Checkers {
+    private final static long DEFAULT_AI_TIME_MS = 50;
+    private final static int AI_TABLE_MB = 16;
+
+    /**
+     * Plays a game on the console.
+     *
+     * @param args optional "--ai black|white" to let the computer play one side,
+     *             "--time ms" to set how long it may think per move,
+     *             "--threads n" to set how many threads it searches with and
+     *             "--endgames file" to end games the EndgameGenerator database has already decided,
+     *             "--book file" to let the computer play OpeningBookBuilder book moves,
+     *             "--draw-plies n" to draw after that many turns without a capture or a man moving and
+     *             "--ponder" to let the computer think while the player does
+     */
     public static void main(String[] args) {
+        int aiColor = BoardHandler.UNOCCUPIED;
+        long aiTime = DEFAULT_AI_TIME_MS;
+        int aiThreads = 1;
+        EndgameDatabase endgames = null;
+        OpeningBook book = null;
+        long[] bookMoves = new long[BoardHandler.MAX_MOVES];
+        boolean ponder = false;
+        int drawPlies = BoardHandler.DEFAULT_DRAW_PLIES;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--ponder")) {
+                ponder = true;
+                continue;
+            }
+            if (i + 1 == args.length)
+                break;
+            if (args[i].equals("--ai")) {
+                if (args[i + 1].equalsIgnoreCase("black"))
+                    aiColor = BoardHandler.BLACK;
+                else if (args[i + 1].equalsIgnoreCase("white"))
+                    aiColor = BoardHandler.WHITE;
+            } else if (args[i].equals("--time")) {
+                aiTime = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--threads")) {
+                aiThreads = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--endgames")) {
+                try {
+                    endgames = new EndgameDatabase(Paths.get(args[i + 1]));
+                } catch (IOException e) {
+                    System.out.println("Could not open the endgame database: " + e.getMessage());
+                }
+            } else if (args[i].equals("--draw-plies")) {
+                drawPlies = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--book")) {
+                book = new OpeningBook(Paths.get(args[i + 1]));
+            }
+        }
+        ParallelSearch engine = aiColor == BoardHandler.UNOCCUPIED ? null : new ParallelSearch(aiThreads, AI_TABLE_MB);
+        if (engine != null)
+            engine.setEndgameDatabase(endgames);
+        Ponderer ponderer = engine != null && ponder ? new Ponderer(engine) : null;
+
         BoardHandler boardHandler = new BoardHandler();
         boardHandler.newGame();
+        boardHandler.setDrawPlies(drawPlies);
 //        boardHandler.customGame();
         Scanner kb = new Scanner(System.in);
 
         System.out.println("You have begun a new game of Checkers.");
         System.out.println("Solid pieces are black. All rows and columns are numbers 0 - 7.");
         boolean finished = false;
+        int plies = 0;
 
         boolean isBlackTurn = boardHandler.isBlackTurn();
         while (!finished) {
@@ -20,46 +79,100 @@ public class Checkers {
             }
             printBoard(boardHandler);
 
-            try {
-                int[] startPos = new int[2];
-                int[] endPos = new int[2];
-                System.out.println("Which piece would you like to move? (row col)");
-                String n = kb.nextLine();
-                if (!getPos(n, startPos)){
-                    throw new NumberFormatException();
+            if (engine != null && isBlackTurn == (aiColor == BoardHandler.BLACK)) {
+                long move = SearchEngine.NO_MOVE;
+                if (book != null) {
+                    try {
+                        move = book.probe(boardHandler, plies, bookMoves);
+                    } catch (IOException e) {
+                        System.out.println("Could not read the opening book: " + e.getMessage());
+                        book = null;
+                    }
                 }
-                System.out.println("Where would you like to move the piece at [" + startPos[0] + ", " + startPos[1] + "] to?");
-                n = kb.nextLine();
-                if (!getPos(n, endPos)){
-                    throw new NumberFormatException();
+                boolean fromBook = move != SearchEngine.NO_MOVE;
+                boolean pondered = false;
+                if (ponderer != null) {
+                    if (fromBook) {
+                        ponderer.stop();
+                    } else {
+                        move = ponderer.finish(boardHandler, aiTime);
+                        pondered = move != SearchEngine.NO_MOVE;
+                    }
                 }
-
-                //Make move and receive status from boardHandler
-                BoardHandler.UpdateStatus status = boardHandler.makeMove(boardHandler.getPos(startPos), startPos, endPos);
+                if (move == SearchEngine.NO_MOVE)
+                    move = engine.findBestMove(boardHandler, aiTime);
+                if (move == SearchEngine.NO_MOVE) {
+                    System.out.println("The game is finished. " + (isBlackTurn ? "White" : "Black") + " wins!");
+                    finished = true;
+                    continue;
+                }
+                boardHandler.playMove(move);
                 isBlackTurn = boardHandler.isBlackTurn();
-                if (status.opCode == BoardHandler.normal) {
-                    System.out.println(status.message);
-                } else {
-                    System.out.println(status.message);
+                plies++;
+                System.out.println("The computer played " + BoardHandler.moveToString(move)
+                        + (fromBook ? " from its book." : pondered ? ", having seen your move coming." : "."));
+                if (ponderer != null)
+                    ponderer.start(boardHandler);
+            } else {
+                try {
+                    int[] startPos = new int[2];
+                    int[] endPos = new int[2];
+                    System.out.println("Which piece would you like to move? (row col)");
+                    String n = kb.nextLine();
+                    if (!getPos(n, startPos)){
+                        throw new NumberFormatException();
+                    }
+                    System.out.println("Where would you like to move the piece at [" + startPos[0] + ", " + startPos[1] + "] to?");
+                    n = kb.nextLine();
+                    if (!getPos(n, endPos)){
+                        throw new NumberFormatException();
+                    }
+
+                    //Make move and receive status from boardHandler
+                    BoardHandler.UpdateStatus status = boardHandler.makeMove(boardHandler.getPos(startPos), startPos, endPos);
+                    if (isBlackTurn != boardHandler.isBlackTurn())
+                        plies++;
+                    isBlackTurn = boardHandler.isBlackTurn();
+                    if (status.opCode == BoardHandler.normal) {
+                        System.out.println(status.message);
+                    } else {
+                        System.out.println(status.message);
+                    }
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    System.out.println("Input was not in form \"row col\".");
+                    System.out.println("Press [Enter] to continue.");
+                    kb.nextLine();
                 }
-            } catch (NumberFormatException | IndexOutOfBoundsException e) {
-                System.out.println("Input was not in form \"row col\".");
-                System.out.println("Press [Enter] to continue.");
-                kb.nextLine();
             }
 
-            //Check to see if anyone has won
-            if (boardHandler.getNumWhites() == 0) {
-                System.out.println("The game is finished. Black wins!");
+            //Check to see if anyone has won, or nobody can
+            int state = finished ? BoardHandler.IN_PROGRESS : boardHandler.getGameState();
+            if (state != BoardHandler.IN_PROGRESS) {
+                if (state == BoardHandler.BLACK_WON)
+                    System.out.println("The game is finished. Black wins!");
+                else if (state == BoardHandler.WHITE_WON)
+                    System.out.println("The game is finished. White wins!");
+                else if (state == BoardHandler.REPETITION_DRAW)
+                    System.out.println("The game is finished. The same position came up three times, it is a draw.");
+                else
+                    System.out.println("The game is finished. " + boardHandler.getDrawPlies()
+                            + " turns went by without a capture or a man moving, it is a draw.");
                 printBoard(boardHandler);
                 finished = true;
             }
-            if (boardHandler.getNumBlacks() == 0) {
-                System.out.println("The game is finished. White wins!");
+            int known = finished || endgames == null ? EndgameDatabase.UNKNOWN : endgames.probe(boardHandler);
+            if (known != EndgameDatabase.UNKNOWN) {
+                boolean blackWins = (known == EndgameDatabase.WIN) == boardHandler.isBlackTurn();
+                if (known == EndgameDatabase.DRAW)
+                    System.out.println("The game is finished. The endgame database says it is a draw.");
+                else
+                    System.out.println("The game is finished. The endgame database says " + (blackWins ? "Black" : "White") + " wins!");
                 printBoard(boardHandler);
                 finished = true;
             }
         }
+        if (ponderer != null)
+            ponderer.stop();
     }
 
     private static void printBoard(BoardHandler h) {
@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Win, loss or draw for every position with few enough pieces, read from a file built by EndgameGenerator.
+ *
+ * The file is mapped into memory and probed in place, so only the small slice table lives on the heap, and
+ * any number of threads may probe one database at once.
+ * Positions are grouped in slices by their numbers of black men, black kings, white men and white kings.
+ * Within a slice a position's index is the combination rank of its black men over the 32 squares, then of
+ * its white men over the squares left, then black kings, then white kings, times two for the side to move.
+ * Each position takes two bits, four to a byte.
+ *
+ * File layout, big-endian: MAGIC, format VERSION, the largest piece count, the number of slices, then per
+ * slice its four piece counts as bytes and the long offset of its data, then the data.
+ */
+public class EndgameDatabase implements Closeable {
+    final static int MAGIC = 0x434B4547;//"CKEG"
+    final static int VERSION = 1;
+    final static int MAX_PIECES = 5;//six pieces would need more than one 2 GB mapping
+
+    //Results, from the point of view of the side to move
+    final static int UNKNOWN = 0;
+    final static int WIN = 1;
+    final static int LOSS = 2;
+    final static int DRAW = 3;
+
+    //Binomial coefficients C(n, k) for n <= 32
+    final static long[][] CHOOSE = new long[33][MAX_PIECES + 1];
+
+    static {
+        for (int n = 0; n <= 32; n++) {
+            CHOOSE[n][0] = 1;
+            for (int k = 1; k <= MAX_PIECES && k <= n; k++)
+                CHOOSE[n][k] = CHOOSE[n - 1][k - 1] + (k < n ? CHOOSE[n - 1][k] : 0);
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final int maxPieces;
+    private final long[] sliceOffsets;
+
+    /**
+     * Maps the database file.
+     *
+     * @throws IOException if the file cannot be read or is not an endgame database
+     */
+    public EndgameDatabase(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        if (channel.size() > Integer.MAX_VALUE)
+            throw new IOException("Endgame database too large to map: " + file);
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        data.order(ByteOrder.BIG_ENDIAN);
+        if (data.remaining() < 16 || data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+            throw new IOException("Not an endgame database: " + file);
+        maxPieces = data.getInt(8);
+        int slices = data.getInt(12);
+        if (maxPieces < 2 || maxPieces > MAX_PIECES)
+            throw new IOException("Bad piece count in endgame database: " + maxPieces);
+        sliceOffsets = new long[sliceCount(maxPieces)];
+        Arrays.fill(sliceOffsets, -1);
+        for (int i = 0; i < slices; i++) {
+            int entry = 16 + i * 12;
+            int slice = slice(data.get(entry), data.get(entry + 1), data.get(entry + 2), data.get(entry + 3), maxPieces);
+            sliceOffsets[slice] = data.getLong(entry + 4);
+        }
+    }
+
+    /**
+     * Looks the position up. Positions in the middle of a multi-jump and positions with more pieces than
+     * the database holds are not covered.
+     *
+     * @return WIN, LOSS or DRAW for the side to move, or UNKNOWN
+     */
+    public int probe(BoardHandler board) {
+        int own = board.isBlackTurn() ? board.getBlacks() : board.getWhites();
+        int other = board.isBlackTurn() ? board.getWhites() : board.getBlacks();
+        if (own == 0)
+            return LOSS;
+        if (other == 0)
+            return WIN;
+        if (Integer.bitCount(own | other) > maxPieces || board.getForceSquare() >= 0)
+            return UNKNOWN;
+        return probe(board.getBlacks(), board.getWhites(), board.getKings(), board.isBlackTurn());
+    }
+
+    int probe(int blacks, int whites, int kings, boolean blackToMove) {
+        long offset = sliceOffsets[slice(blacks, whites, kings, maxPieces)];
+        if (offset < 0)
+            return UNKNOWN;
+        long index = index(blacks, whites, kings, blackToMove);
+        return data.get((int) (offset + (index >>> 2))) >>> ((int) (index & 3) * 2) & 3;
+    }
+
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return number of slice numbers used for databases of up to maxPieces pieces
+     */
+    static int sliceCount(int maxPieces) {
+        int side = maxPieces + 1;
+        return side * side * side * side;
+    }
+
+    static int slice(int blackMen, int blackKings, int whiteMen, int whiteKings, int maxPieces) {
+        int side = maxPieces + 1;
+        return ((blackMen * side + blackKings) * side + whiteMen) * side + whiteKings;
+    }
+
+    static int slice(int blacks, int whites, int kings, int maxPieces) {
+        return slice(Integer.bitCount(blacks & ~kings), Integer.bitCount(blacks & kings),
+                Integer.bitCount(whites & ~kings), Integer.bitCount(whites & kings), maxPieces);
+    }
+
+    /**
+     * @return number of positions in a slice, both sides to move counted
+     */
+    static long sliceSize(int blackMen, int blackKings, int whiteMen, int whiteKings) {
+        int free = 32;
+        long size = CHOOSE[free][blackMen];
+        free -= blackMen;
+        size *= CHOOSE[free][whiteMen];
+        free -= whiteMen;
+        size *= CHOOSE[free][blackKings];
+        free -= blackKings;
+        return size * CHOOSE[free][whiteKings] * 2;
+    }
+
+    /**
+     * @return index of the position within its slice
+     */
+    static long index(int blacks, int whites, int kings, boolean blackToMove) {
+        int blackMen = blacks & ~kings;
+        int whiteMen = whites & ~kings;
+        int blackKings = blacks & kings;
+        int whiteKings = whites & kings;
+        int taken = blackMen;
+        long index = rank(blackMen, 0);
+        int free = 32 - Integer.bitCount(taken);
+        index = index * CHOOSE[free][Integer.bitCount(whiteMen)] + rank(whiteMen, taken);
+        taken |= whiteMen;
+        free = 32 - Integer.bitCount(taken);
+        index = index * CHOOSE[free][Integer.bitCount(blackKings)] + rank(blackKings, taken);
+        taken |= blackKings;
+        free = 32 - Integer.bitCount(taken);
+        index = index * CHOOSE[free][Integer.bitCount(whiteKings)] + rank(whiteKings, taken);
+        return index * 2 + (blackToMove ? 0 : 1);
+    }
+
+    /**
+     * Rank of a set of squares among all sets of its size, counting only squares not taken.
+     */
+    static long rank(int set, int taken) {
+        long rank = 0;
+        int i = 1;
+        for (; set != 0; set &= set - 1) {
+            int sq = Integer.numberOfTrailingZeros(set);
+            int position = sq - Integer.bitCount(taken & ((1 << sq) - 1));
+            rank += CHOOSE[position][i++];
+        }
+        return rank;
+    }
+
+    /**
+     * Undoes {@link #rank(int, int)}.
+     *
+     * @param count number of squares in the set
+     */
+    static int unrank(long rank, int count, int taken) {
+        int set = 0;
+        int position = 31;
+        for (int i = count; i > 0; i--) {
+            while (CHOOSE[position][i] > rank)
+                position--;
+            rank -= CHOOSE[position][i];
+            set |= 1 << freeSquare(position, taken);
+        }
+        return set;
+    }
+
+    /**
+     * @return the square that is the given free square, counting from 0 and skipping taken squares
+     */
+    private static int freeSquare(int position, int taken) {
+        int free = ~taken;
+        for (int i = 0; i < position; i++)
+            free &= free - 1;
+        return Integer.numberOfTrailingZeros(free);
+    }
+}
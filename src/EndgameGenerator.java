@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds an EndgameDatabase file by retrograde analysis.
+ *
+ * Slices are solved from the fewest pieces up and, for one piece count, from the fewest men up, so that
+ * every capture and every crowning leads into a slice that is already solved. Inside a slice the solver
+ * sweeps over the positions still open: a position is won if some move leads to a position lost for the
+ * opponent and lost if every move leads to one won for the opponent. Sweeps repeat until nothing changes,
+ * and whatever is still open then is a draw.
+ */
+public class EndgameGenerator {
+    private final int maxPieces;
+    private final byte[][] solved;//packed results of finished slices, indexed by slice number
+    private final BoardHandler board = new BoardHandler();
+    private final long[] moves = new long[BoardHandler.MAX_MOVES];
+    private final List<int[]> order = new ArrayList<>();
+
+    //the slice being solved, one byte per position
+    private byte[] current;
+    private int currentSlice;
+
+    public EndgameGenerator(int maxPieces) {
+        if (maxPieces < 2 || maxPieces > EndgameDatabase.MAX_PIECES)
+            throw new IllegalArgumentException("Piece count must be 2 - " + EndgameDatabase.MAX_PIECES + ": " + maxPieces);
+        this.maxPieces = maxPieces;
+        solved = new byte[EndgameDatabase.sliceCount(maxPieces)][];
+        for (int pieces = 2; pieces <= maxPieces; pieces++) {
+            for (int men = 0; men <= pieces; men++) {
+                for (int blackMen = 0; blackMen <= men; blackMen++) {
+                    int whiteMen = men - blackMen;
+                    for (int blackKings = 0; blackKings <= pieces - men; blackKings++) {
+                        int whiteKings = pieces - men - blackKings;
+                        if (blackMen + blackKings > 0 && whiteMen + whiteKings > 0)
+                            order.add(new int[]{blackMen, blackKings, whiteMen, whiteKings});
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves every slice, printing progress when asked to.
+     */
+    public void generate(boolean verbose) {
+        for (int[] counts : order) {
+            long start = System.nanoTime();
+            int sweeps = solve(counts[0], counts[1], counts[2], counts[3]);
+            if (verbose)
+                System.out.printf("%d+%dK v %d+%dK: %d positions, %d sweeps, %.1f s%n", counts[0], counts[1],
+                        counts[2], counts[3], EndgameDatabase.sliceSize(counts[0], counts[1], counts[2], counts[3]),
+                        sweeps, (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /**
+     * @return number of sweeps it took
+     */
+    private int solve(int blackMen, int blackKings, int whiteMen, int whiteKings) {
+        long size = EndgameDatabase.sliceSize(blackMen, blackKings, whiteMen, whiteKings);
+        currentSlice = EndgameDatabase.slice(blackMen, blackKings, whiteMen, whiteKings, maxPieces);
+        current = new byte[(int) size];
+        long whiteMenCount = EndgameDatabase.CHOOSE[32 - blackMen][whiteMen];
+        long blackKingCount = EndgameDatabase.CHOOSE[32 - blackMen - whiteMen][blackKings];
+        long whiteKingCount = EndgameDatabase.CHOOSE[32 - blackMen - whiteMen - blackKings][whiteKings];
+
+        int sweeps = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            sweeps++;
+            for (long index = 0; index < size; index++) {
+                if (current[(int) index] != EndgameDatabase.UNKNOWN)
+                    continue;
+                long rest = index >>> 1;
+                long whiteKingRank = rest % whiteKingCount;
+                rest /= whiteKingCount;
+                long blackKingRank = rest % blackKingCount;
+                rest /= blackKingCount;
+                long whiteMenRank = rest % whiteMenCount;
+                rest /= whiteMenCount;
+                int blackMenSet = EndgameDatabase.unrank(rest, blackMen, 0);
+                int whiteMenSet = EndgameDatabase.unrank(whiteMenRank, whiteMen, blackMenSet);
+                int taken = blackMenSet | whiteMenSet;
+                int blackKingSet = EndgameDatabase.unrank(blackKingRank, blackKings, taken);
+                int whiteKingSet = EndgameDatabase.unrank(whiteKingRank, whiteKings, taken | blackKingSet);
+
+                //men standing on the row where they would have been crowned cannot occur
+                if ((blackMenSet & BoardHandler.BLACK_KING_ROW) != 0 || (whiteMenSet & BoardHandler.WHITE_KING_ROW) != 0) {
+                    current[(int) index] = EndgameDatabase.DRAW;
+                    continue;
+                }
+                board.setPosition(blackMenSet | blackKingSet, whiteMenSet | whiteKingSet, blackKingSet | whiteKingSet,
+                        (index & 1) == 0);
+                int result = solvePosition();
+                if (result != EndgameDatabase.UNKNOWN) {
+                    current[(int) index] = (byte) result;
+                    changed = true;
+                }
+            }
+        }
+
+        byte[] packed = new byte[(int) ((size + 3) / 4)];
+        for (int i = 0; i < size; i++) {
+            int result = current[i] == EndgameDatabase.UNKNOWN ? EndgameDatabase.DRAW : current[i];
+            packed[i >>> 2] |= (byte) (result << (i & 3) * 2);
+        }
+        solved[currentSlice] = packed;
+        current = null;
+        return sweeps;
+    }
+
+    /**
+     * @return the result of the board's position if the known results already decide it, else UNKNOWN
+     */
+    private int solvePosition() {
+        int count = board.generateMoves(moves);
+        if (count == 0)
+            return EndgameDatabase.LOSS;
+        boolean allWon = true;
+        for (int i = 0; i < count; i++) {
+            board.playMove(moves[i]);
+            int result = lookup();
+            board.unmakeMove();
+            if (result == EndgameDatabase.LOSS)
+                return EndgameDatabase.WIN;
+            if (result != EndgameDatabase.WIN)
+                allWon = false;
+        }
+        return allWon ? EndgameDatabase.LOSS : EndgameDatabase.UNKNOWN;
+    }
+
+    /**
+     * @return the result for the side to move on the board, as far as it is known
+     */
+    private int lookup() {
+        int blacks = board.getBlacks();
+        int whites = board.getWhites();
+        if ((board.isBlackTurn() ? blacks : whites) == 0)
+            return EndgameDatabase.LOSS;
+        int kings = board.getKings();
+        int slice = EndgameDatabase.slice(blacks, whites, kings, maxPieces);
+        long index = EndgameDatabase.index(blacks, whites, kings, board.isBlackTurn());
+        if (slice == currentSlice)
+            return current[(int) index];
+        return solved[slice][(int) (index >>> 2)] >>> ((int) (index & 3) * 2) & 3;
+    }
+
+    /**
+     * Writes the solved slices in the EndgameDatabase format.
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(16 + order.size() * 12);
+            header.putInt(EndgameDatabase.MAGIC).putInt(EndgameDatabase.VERSION).putInt(maxPieces).putInt(order.size());
+            long offset = header.capacity();
+            for (int[] counts : order) {
+                for (int count : counts)
+                    header.put((byte) count);
+                header.putLong(offset);
+                offset += solved[EndgameDatabase.slice(counts[0], counts[1], counts[2], counts[3], maxPieces)].length;
+            }
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header);
+            for (int[] counts : order) {
+                ByteBuffer data = ByteBuffer.wrap(solved[EndgameDatabase.slice(counts[0], counts[1], counts[2], counts[3], maxPieces)]);
+                while (data.hasRemaining())
+                    channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Usage: EndgameGenerator [pieces] [file]
+     */
+    public static void main(String[] args) throws IOException {
+        int pieces = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        Path file = Paths.get(args.length > 1 ? args[1] : "endgame" + pieces + ".db");
+        long start = System.nanoTime();
+        EndgameGenerator generator = new EndgameGenerator(pieces);
+        generator.generate(true);
+        generator.write(file);
+        System.out.printf("Wrote %s in %.1f s.%n", file, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Static evaluation of a position for the search.
+ *
+ * Material and everything that depends only on which piece stands on which square (advancement of men,
+ * central squares) is folded into one piece-square table per piece kind. BoardHandler keeps the sum of
+ * those tables up to date on every move and takes it back on unmake, so that part costs nothing at a leaf.
+ * The terms that depend on more than one piece are computed from the square masks: a back-rank guard while
+ * the opponent has no kings, mobility and runaway men with no opponent between them and the king row.
+ *
+ * Weights can be loaded from a text file of "name value..." lines, '#' starting a comment:
+ * <pre>
+ * man 100          value of a man
+ * king 130         value of a king
+ * advance 0 1 2 3 4 6 8 0   bonus of a man per row, counted from its own back row
+ * center 4         bonus of a man on the four central squares, half that next to them
+ * kingCenter 6     the same for kings
+ * backRank 6       bonus per man still on its back row while the opponent has no king
+ * mobility 2       bonus per empty square the side's pieces can step to
+ * runaway 30       bonus of a man that nothing can stop from crowning, divided by its distance
+ * manTable ...     32 values replacing man, advance and center for black men, square 1 first
+ * kingTable ...    32 values replacing king and kingCenter for black kings
+ * </pre>
+ * White uses the same tables turned around. A file ending in ".nnue" is read as an NnueNetwork instead.
+ */
+public class Evaluator {
+    final static Evaluator DEFAULT = new Evaluator(new HashMap<>());
+
+    private final static int BLACK_BACK_ROW = 0x0000000F;//row 0
+    private final static int WHITE_BACK_ROW = 0xF0000000;//row 7
+    private final static int MAX_WEIGHT = 10000;//keeps the summed tables well inside the undo stack's 24 bits
+
+    private final int[][] pieceSquare = new int[5][32];
+    private final int backRank;
+    private final int mobility;
+    private final int runaway;
+
+    /**
+     * @param weights values by name as described above; missing names keep their defaults
+     */
+    Evaluator(Map<String, int[]> weights) {
+        int man = weight(weights, "man", 100);
+        int king = weight(weights, "king", 130);
+        int[] advance = weights.getOrDefault("advance", new int[]{0, 1, 2, 3, 4, 6, 8, 0});
+        int center = weight(weights, "center", 4);
+        int kingCenter = weight(weights, "kingCenter", 6);
+        backRank = weight(weights, "backRank", 6);
+        mobility = weight(weights, "mobility", 2);
+        runaway = weight(weights, "runaway", 30);
+        if (advance.length != 8)
+            throw new IllegalArgumentException("advance needs 8 values, one per row");
+
+        int[] manTable = weights.get("manTable");
+        int[] kingTable = weights.get("kingTable");
+        for (int sq = 0; sq < 32; sq++) {
+            int row = BoardHandler.rowOf(sq);
+            int col = BoardHandler.colOf(sq);
+            boolean inner = row >= 3 && row <= 4 && col >= 2 && col <= 5;
+            boolean near = row >= 2 && row <= 5 && col >= 1 && col <= 6;
+            int blackMan = manTable != null ? manTable[sq]
+                    : man + advance[row] + (inner ? center : near ? center / 2 : 0);
+            int blackKing = kingTable != null ? kingTable[sq]
+                    : king + (inner ? kingCenter : near ? kingCenter / 2 : 0);
+            pieceSquare[BoardHandler.BLACK][sq] = clamp(blackMan);
+            pieceSquare[BoardHandler.BLACK_KING][sq] = clamp(blackKing);
+            //squares turned half a circle: 31 - sq is the same spot seen from the other side
+            pieceSquare[BoardHandler.WHITE][31 - sq] = -clamp(blackMan);
+            pieceSquare[BoardHandler.WHITE_KING][31 - sq] = -clamp(blackKing);
+        }
+    }
+
+    /**
+     * Reads weights from a file.
+     *
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a line cannot be understood
+     */
+    static Evaluator load(Path file) throws IOException {
+        if (file.toString().endsWith(".nnue"))
+            return NnueEvaluator.load(file);
+        Map<String, int[]> weights = new HashMap<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            String[] parts = line.split("\\s+");
+            int[] values = new int[parts.length - 1];
+            try {
+                for (int i = 1; i < parts.length; i++)
+                    values[i - 1] = Integer.parseInt(parts[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number on line " + lineNumber + " of " + file, e);
+            }
+            int expected = parts[0].equals("advance") ? 8 : parts[0].endsWith("Table") ? 32 : 1;
+            if (!isKnown(parts[0]) || values.length != expected)
+                throw new IllegalArgumentException("Line " + lineNumber + " of " + file + " needs " + parts[0]
+                        + (isKnown(parts[0]) ? " and " + expected + " value(s)" : " to be a known weight"));
+            weights.put(parts[0], values);
+        }
+        return new Evaluator(weights);
+    }
+
+    private static boolean isKnown(String name) {
+        switch (name) {
+            case "man":
+            case "king":
+            case "advance":
+            case "center":
+            case "kingCenter":
+            case "backRank":
+            case "mobility":
+            case "runaway":
+            case "manTable":
+            case "kingTable":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int weight(Map<String, int[]> weights, String name, int fallback) {
+        int[] value = weights.get(name);
+        return value == null ? fallback : clamp(value[0]);
+    }
+
+    private static int clamp(int weight) {
+        return Math.max(-MAX_WEIGHT, Math.min(MAX_WEIGHT, weight));
+    }
+
+    /**
+     * @return table of material plus square values by color code and square, black positive
+     */
+    int[][] getPieceSquare() {
+        return pieceSquare;
+    }
+
+    /**
+     * @return network whose accumulators a board should keep for this evaluator, or null if it needs none
+     */
+    NnueNetwork getNetwork() {
+        return null;
+    }
+
+    /**
+     * @return score of the position from the point of view of the side to move
+     */
+    int evaluate(BoardHandler board) {
+        int blacks = board.getBlacks();
+        int whites = board.getWhites();
+        int kings = board.getKings();
+        int empty = ~(blacks | whites);
+        int blackMen = blacks & ~kings;
+        int whiteMen = whites & ~kings;
+        int score = board.getPieceSquareScore();
+
+        if ((whites & kings) == 0)
+            score += backRank * Integer.bitCount(blackMen & BLACK_BACK_ROW);
+        if ((blacks & kings) == 0)
+            score -= backRank * Integer.bitCount(whiteMen & WHITE_BACK_ROW);
+
+        int blackTargets = BoardHandler.stepTargets(blackMen, BoardHandler.BLACK_DIRECTIONS, empty)
+                | BoardHandler.stepTargets(blacks & kings, BoardHandler.KING_DIRECTIONS, empty);
+        int whiteTargets = BoardHandler.stepTargets(whiteMen, BoardHandler.WHITE_DIRECTIONS, empty)
+                | BoardHandler.stepTargets(whites & kings, BoardHandler.KING_DIRECTIONS, empty);
+        score += mobility * (Integer.bitCount(blackTargets) - Integer.bitCount(whiteTargets));
+
+        //only men within three rows of crowning are worth checking
+        for (int men = blackMen & 0xFFFF0000; men != 0; men &= men - 1) {
+            int sq = Integer.numberOfTrailingZeros(men);
+            score += runaway(1 << sq, 7 - BoardHandler.rowOf(sq), BoardHandler.DOWN_LEFT, BoardHandler.DOWN_RIGHT, whites);
+        }
+        for (int men = whiteMen & 0x0000FFFF; men != 0; men &= men - 1) {
+            int sq = Integer.numberOfTrailingZeros(men);
+            score -= runaway(1 << sq, BoardHandler.rowOf(sq), BoardHandler.UP_LEFT, BoardHandler.UP_RIGHT, blacks);
+        }
+        return board.isBlackTurn() ? score : -score;
+    }
+
+    /**
+     * @return the runaway bonus for the man if no opponent stands anywhere it could still meet on its way;
+     * 0 for a man already on its king row, which set-up positions allow and the piece-square table covers
+     */
+    private int runaway(int bit, int distance, int left, int right, int opponents) {
+        if (distance == 0 || distance > 3)
+            return 0;
+        int cone = bit;
+        for (int step = 0; step < distance; step++) {
+            cone = BoardHandler.shift(cone, left) | BoardHandler.shift(cone, right);
+            if ((cone & opponents) != 0)
+                return 0;
+        }
+        return runaway / distance;
+    }
+}
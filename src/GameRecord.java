@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * One recorded game: the position it started from, its moves and its result.
+ *
+ * A move is kept as a 16-bit code: start square in bits 0 - 4, end square in bits 5 - 9 and, in bits
+ * 10 - 15, which of the legal moves with that start and end square it is, in generateMoves order. Only
+ * king chains that capture different pieces between the same two squares ever need an index above 0.
+ * Records are meant to be reused: GameRecordReader fills the same one game after game.
+ */
+public class GameRecord {
+    final static int UNKNOWN = 0;
+    final static int BLACK_WINS = 1;
+    final static int WHITE_WINS = 2;
+    final static int DRAW = 3;
+
+    private final byte[] start = new byte[PositionCodec.POSITION_BYTES];
+    private final long[] buffer = new long[BoardHandler.MAX_MOVES];
+    private short[] moves = new short[128];
+    private int moveCount;
+    private int result;
+
+    /**
+     * Starts the record over from the given position.
+     */
+    public void reset(BoardHandler position) {
+        PositionCodec.encode(position, start, 0);
+        moveCount = 0;
+        result = UNKNOWN;
+    }
+
+    /**
+     * Makes this record a copy of another.
+     */
+    public void copyFrom(GameRecord other) {
+        System.arraycopy(other.start, 0, start, 0, start.length);
+        setMoveCount(other.moveCount);
+        System.arraycopy(other.moves, 0, moves, 0, other.moveCount);
+        result = other.result;
+    }
+
+    /**
+     * Records a move about to be played in the given position.
+     *
+     * @throws IllegalArgumentException if the move is not legal there
+     */
+    public void addMove(BoardHandler position, long move) {
+        int code = encodeMove(position, move, buffer);
+        if (code < 0)
+            throw new IllegalArgumentException("Illegal move " + BoardHandler.moveToString(move));
+        addCode(code);
+    }
+
+    void addCode(int code) {
+        if (moveCount == moves.length)
+            moves = Arrays.copyOf(moves, moveCount * 2);
+        moves[moveCount++] = (short) code;
+    }
+
+    /**
+     * Sets up the board on the position the game started from.
+     */
+    public void startPosition(BoardHandler board) {
+        PositionCodec.decode(start, 0, board);
+    }
+
+    /**
+     * Plays the whole game on the board, from its start position.
+     *
+     * @return index of the first move that is not legal where it was played, or -1 if all of them are
+     */
+    public int replay(BoardHandler board) {
+        startPosition(board);
+        for (int i = 0; i < moveCount; i++) {
+            long move = decodeMove(board, getCode(i), buffer);
+            if (move == SearchEngine.NO_MOVE)
+                return i;
+            board.playMove(move);
+            board.discardUndo();
+        }
+        return -1;
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    int getCode(int index) {
+        return moves[index] & 0xFFFF;
+    }
+
+    public int getResult() {
+        return result;
+    }
+
+    public void setResult(int result) {
+        this.result = result;
+    }
+
+    byte[] getStart() {
+        return start;
+    }
+
+    /**
+     * Sets the number of moves, to be filled with setCode. Moves already recorded may be lost.
+     */
+    void setMoveCount(int count) {
+        if (count > moves.length)
+            moves = new short[Math.max(count, moves.length * 2)];
+        moveCount = count;
+    }
+
+    void setCode(int index, int code) {
+        moves[index] = (short) code;
+    }
+
+    /**
+     * @param buffer scratch space of MAX_MOVES entries
+     * @return the 16-bit code of a move legal in the position, or -1 if it is not legal
+     */
+    static int encodeMove(BoardHandler position, long move, long[] buffer) {
+        int start = BoardHandler.moveStart(move);
+        int end = BoardHandler.moveEnd(move);
+        int count = position.generateMoves(buffer);
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            if (buffer[i] == move)
+                return start | end << 5 | index << 10;
+            if (BoardHandler.moveStart(buffer[i]) == start && BoardHandler.moveEnd(buffer[i]) == end)
+                index++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param buffer scratch space of MAX_MOVES entries
+     * @return the legal move the code stands for in the position, or NO_MOVE if there is none
+     */
+    static long decodeMove(BoardHandler position, int code, long[] buffer) {
+        int start = code & 31;
+        int end = code >>> 5 & 31;
+        int index = code >>> 10 & 63;
+        int count = position.generateMoves(buffer);
+        for (int i = 0; i < count; i++) {
+            if (BoardHandler.moveStart(buffer[i]) == start && BoardHandler.moveEnd(buffer[i]) == end && index-- == 0)
+                return buffer[i];
+        }
+        return SearchEngine.NO_MOVE;
+    }
+}
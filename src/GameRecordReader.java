@@ -0,0 +1,81 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads games written by a GameRecordWriter back from a channel.
+ *
+ * Reading refills one direct buffer from the channel and decodes each game into a GameRecord the caller
+ * passes in, so a reader going through millions of games allocates nothing once the record's move array
+ * has grown to the longest game.
+ */
+public class GameRecordReader implements Closeable {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(GameRecordWriter.BUFFER_SIZE);
+    private long games;
+
+    /**
+     * @throws IOException if the stream does not start with the game-record MAGIC
+     */
+    public GameRecordReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        if (!fill(4) || buffer.getInt() != GameRecordWriter.MAGIC)
+            throw new IOException("Not a game-record stream");
+    }
+
+    /**
+     * Reads the next game into the record.
+     *
+     * @return false at the end of the stream
+     * @throws IOException if the stream ends inside a game or a record is malformed
+     */
+    public boolean next(GameRecord record) throws IOException {
+        if (!fill(4))
+            return false;
+        int length = buffer.getInt();
+        int moves = (length - PositionCodec.POSITION_BYTES - 1) / 2;
+        if (length + 4 > GameRecordWriter.BUFFER_SIZE || moves < 0 || (length - PositionCodec.POSITION_BYTES - 1) % 2 != 0)
+            throw new IOException("Malformed game record of " + length + " bytes");
+        if (!fill(length))
+            throw new EOFException("Game record cut short");
+        buffer.get(record.getStart());
+        record.setResult(buffer.get());
+        record.setMoveCount(moves);
+        for (int i = 0; i < moves; i++)
+            record.setCode(i, buffer.getShort());
+        games++;
+        return true;
+    }
+
+    public long getGamesRead() {
+        return games;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads from the channel until at least the given number of bytes are buffered.
+     *
+     * @return false if the stream ended first
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes)
+            return true;
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0)
+                    return false;
+            }
+        } finally {
+            buffer.flip();
+        }
+        return true;
+    }
+}
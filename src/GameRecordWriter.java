@@ -0,0 +1,73 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes GameRecords to a channel in the binary game-record format.
+ *
+ * The stream starts with the 4-byte MAGIC. Each game follows as a big-endian int giving the length of the
+ * rest of the record, the start position in PositionCodec form, one result byte and then one 16-bit code
+ * per move. Records are gathered in one direct buffer that is handed to the channel whenever it fills up,
+ * so writing a game allocates nothing.
+ */
+public class GameRecordWriter implements Closeable {
+    final static int MAGIC = 0x434B5231;//"CKR1"
+    final static int BUFFER_SIZE = 1 << 16;
+    final static int HEADER_BYTES = 4 + PositionCodec.POSITION_BYTES + 1;
+    final static int MAX_MOVES_PER_GAME = (BUFFER_SIZE - HEADER_BYTES) / 2;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long games;
+
+    public GameRecordWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.putInt(MAGIC);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the game has more than MAX_MOVES_PER_GAME moves
+     */
+    public void write(GameRecord record) throws IOException {
+        int moves = record.getMoveCount();
+        if (moves > MAX_MOVES_PER_GAME)
+            throw new IllegalArgumentException("Game too long to record: " + moves + " moves");
+        int length = HEADER_BYTES + moves * 2;
+        if (buffer.remaining() < length)
+            drain();
+        buffer.putInt(length - 4);
+        buffer.put(record.getStart());
+        buffer.put((byte) record.getResult());
+        for (int i = 0; i < moves; i++)
+            buffer.putShort((short) record.getCode(i));
+        games++;
+    }
+
+    /**
+     * Hands every buffered game to the channel.
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    public long getGamesWritten() {
+        return games;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
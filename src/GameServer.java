@@ -0,0 +1,475 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A headless server that hosts many independent games over a line-based TCP protocol.
+ *
+ * Connections are spread over a few NIO event loops; a loop reads a command, runs it and writes the reply
+ * without blocking. Games are GameSessions in one shared map, and a session serializes its own moves, so
+ * any connection may play in any game. Sessions nobody has touched for the idle timeout are dropped.
+ * With a SessionJournal the games are snapshotted to a file every few seconds and on close, and a server
+ * started on the same file carries on with them.
+ *
+ * Commands, one per line, each answered with one line starting with OK, NO (a rejected move) or ERR:
+ * <pre>
+ * NEW                          start a game, replies OK id
+ * MOVE id row col row col      one makeMove step, replies with its status code and message
+ * PLAY id row col row col      a whole legal move, multi-jumps included; both refused once the game is over
+ * MOVES id                     legal moves for the side to move
+ * BOARD id                     the position as a PDN FEN
+ * RESULT id                    ONGOING, BLACK, WHITE or DRAW
+ * CLOSE id                     end a game
+ * STATS                        number of live games
+ * METRICS                      makeMove counts and latencies, see MoveMetrics
+ * QUIT                         close the connection
+ * </pre>
+ */
+public class GameServer implements Closeable {
+    final static int DEFAULT_PORT = 7777;
+    private final static int BUFFER_SIZE = 4096;//also the longest command accepted
+    private final static long SWEEP_INTERVAL_MS = 1000;
+    final static long DEFAULT_SNAPSHOT_INTERVAL_MS = 5000;
+
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final Thread[] loopThreads;
+    private final Map<Long, GameSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger sessionCount = new AtomicInteger();//slots taken, reserved before a game is added
+    private final int maxSessions;
+    private final long idleTimeoutMs;
+    private volatile boolean running;
+    private int nextLoop;
+    private volatile SessionJournal journal;
+    private long snapshotIntervalMs = DEFAULT_SNAPSHOT_INTERVAL_MS;
+    private Thread snapshotThread;
+    private final Object snapshotWakeup = new Object();//not an interrupt, which would close the journal's channel
+
+    /**
+     * @param port          port to listen on, 0 for any free port
+     * @param loopCount     number of event loop threads
+     * @param maxSessions   games held at most; NEW is refused beyond that
+     * @param idleTimeoutMs games untouched for this long are dropped
+     */
+    public GameServer(int port, int loopCount, int maxSessions, long idleTimeoutMs) throws IOException {
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMs = idleTimeoutMs;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        loops = new Loop[Math.max(1, loopCount)];
+        loopThreads = new Thread[loops.length];
+        for (int i = 0; i < loops.length; i++)
+            loops[i] = new Loop(i);
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Restores the games kept in the journal file and keeps it up to date from then on. Call before start().
+     *
+     * @param intervalMs time between snapshots
+     * @return number of games restored
+     * @throws IOException if the journal cannot be read or written
+     */
+    public int useJournal(Path file, long intervalMs) throws IOException {
+        journal = SessionJournal.open(file, sessions);
+        sessionCount.set(sessions.size());
+        nextId.set(Math.max(nextId.get(), journal.getNextId()));
+        snapshotIntervalMs = intervalMs;
+        if (journal.getDiscardedBytes() > 0)
+            System.err.println("Journal " + file + ": cut off " + journal.getDiscardedBytes() + " bytes of a torn write");
+        return sessions.size();
+    }
+
+    public void start() {
+        running = true;
+        for (Loop loop : loops) {
+            Thread thread = new Thread(loop, "game-loop-" + loop.index);
+            thread.setDaemon(true);
+            thread.start();
+            loopThreads[loop.index] = thread;
+        }
+        if (journal != null) {
+            //off the event loops, which must never wait for the disk
+            snapshotThread = new Thread(() -> {
+                while (running) {
+                    try {
+                        synchronized (snapshotWakeup) {
+                            snapshotWakeup.wait(snapshotIntervalMs);
+                        }
+                        if (running)
+                            snapshot();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        System.err.println("Snapshot failed: " + e);
+                    }
+                }
+            }, "game-snapshot");
+            snapshotThread.setDaemon(true);
+            snapshotThread.start();
+        }
+    }
+
+    /**
+     * Writes the games that changed since the last snapshot to the journal. Does nothing without one.
+     *
+     * @return number of journal records written
+     */
+    int snapshot() throws IOException {
+        SessionJournal journal = this.journal;
+        return journal == null ? 0 : journal.snapshot(sessions, nextId.get());
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    Map<Long, GameSession> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Stops serving and waits for the event loops to finish, then takes a last snapshot, so that every move
+     * a client was told OK is in it.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (Loop loop : loops)
+            loop.selector.wakeup();
+        server.close();
+        if (snapshotThread != null) {
+            synchronized (snapshotWakeup) {
+                snapshotWakeup.notifyAll();
+            }
+        }
+        try {
+            for (Thread thread : loopThreads)
+                if (thread != null)
+                    thread.join();
+            if (snapshotThread != null)
+                snapshotThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //accepted by loop 0 on its way out, after the loop they were handed to had stopped
+        for (Loop loop : loops) {
+            for (SocketChannel channel; (channel = loop.accepted.poll()) != null; ) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        SessionJournal journal = this.journal;
+        if (journal == null)
+            return;
+        this.journal = null;
+        journal.snapshot(sessions, nextId.get());
+        journal.close();
+    }
+
+    /**
+     * Runs one command line and returns the reply line, without the newline.
+     */
+    String handle(String line) {
+        String[] parts = line.trim().split("\\s+");
+        try {
+            switch (parts[0].toUpperCase()) {
+                case "NEW": {
+                    if (sessionCount.incrementAndGet() > maxSessions) {
+                        sessionCount.decrementAndGet();
+                        return "ERR too many games";
+                    }
+                    GameSession session = new GameSession(nextId.getAndIncrement());
+                    sessions.put(session.getId(), session);
+                    return "OK " + session.getId();
+                }
+                case "MOVE": {
+                    GameSession session = session(parts);
+                    if (session == null)
+                        return "ERR no such game";
+                    long result = session.move(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+                            Integer.parseInt(parts[4]), Integer.parseInt(parts[5]));
+                    if (BoardHandler.reasonOf(result) == BoardHandler.GAME_OVER)
+                        return "NO game is over";
+                    int status = BoardHandler.statusOf(result);
+                    return (status >= 0 ? "OK " : "NO ") + status + " " + BoardHandler.messageOf(result);
+                }
+                case "PLAY": {
+                    GameSession session = session(parts);
+                    if (session == null)
+                        return "ERR no such game";
+                    int played = session.play(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+                            Integer.parseInt(parts[4]), Integer.parseInt(parts[5]));
+                    if (played == GameSession.GAME_OVER)
+                        return "NO game is over";
+                    return played == GameSession.PLAYED ? "OK" : "NO illegal move";
+                }
+                case "MOVES": {
+                    GameSession session = session(parts);
+                    return session == null ? "ERR no such game" : "OK " + session.legalMoves();
+                }
+                case "BOARD": {
+                    GameSession session = session(parts);
+                    return session == null ? "ERR no such game" : "OK " + session.getFen();
+                }
+                case "RESULT": {
+                    GameSession session = session(parts);
+                    if (session == null)
+                        return "ERR no such game";
+                    String result = session.getResult();
+                    return "OK " + (result == null ? "ONGOING" : result);
+                }
+                case "CLOSE":
+                    if (sessions.remove(Long.parseLong(parts[1])) == null)
+                        return "ERR no such game";
+                    sessionCount.decrementAndGet();
+                    return "OK";
+                case "STATS":
+                    return "OK games=" + sessions.size();
+                case "METRICS":
+                    return "OK " + MoveMetrics.line();
+                default:
+                    return "ERR unknown command";
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return "ERR bad arguments";
+        }
+    }
+
+    private GameSession session(String[] parts) {
+        return sessions.get(Long.parseLong(parts[1]));
+    }
+
+    private void dropIdleSessions() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+        for (GameSession session : sessions.values()) {
+            //only the thread that removes a game frees its slot, whatever CLOSE does at the same time
+            if (session.getLastActive() < cutoff && sessions.remove(session.getId(), session))
+                sessionCount.decrementAndGet();
+        }
+    }
+
+    private static class Connection {
+        final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean closing;
+    }
+
+    private class Loop implements Runnable {
+        final int index;
+        final Selector selector;
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        long lastSweep = System.currentTimeMillis();
+
+        Loop(int index) throws IOException {
+            this.index = index;
+            selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(SWEEP_INTERVAL_MS);
+                    for (SocketChannel channel; (channel = accepted.poll()) != null; )
+                        channel.register(selector, SelectionKey.OP_READ, new Connection());
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isAcceptable())
+                                accept();
+                            else if (key.isReadable())
+                                read(key);
+                            else if (key.isWritable())
+                                flush(key);
+                        } catch (IOException e) {
+                            closeQuietly(key);
+                        }
+                    }
+
+                    if (index == 0 && System.currentTimeMillis() - lastSweep >= SWEEP_INTERVAL_MS) {
+                        lastSweep = System.currentTimeMillis();
+                        dropIdleSessions();
+                    }
+                } catch (IOException e) {
+                    if (running)
+                        System.err.println("Game loop " + index + ": " + e);
+                }
+            }
+            for (SelectionKey key : selector.keys())
+                closeQuietly(key);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Loop loop = loops[nextLoop++ % loops.length];
+                loop.accepted.add(channel);
+                loop.selector.wakeup();
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            SocketChannel channel = (SocketChannel) key.channel();
+            if (channel.read(connection.in) < 0) {
+                closeQuietly(key);
+                return;
+            }
+
+            ByteBuffer in = connection.in;
+            in.flip();
+            int lineStart = in.position();
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) != '\n')
+                    continue;
+                String line = new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII).trim();
+                lineStart = i + 1;
+                if (line.isEmpty())
+                    continue;
+                if (line.equalsIgnoreCase("QUIT")) {
+                    connection.closing = true;
+                    break;
+                }
+                reply(connection, handle(line));
+            }
+            in.position(lineStart);
+            in.compact();
+            if (!in.hasRemaining() && !connection.closing) {
+                reply(connection, "ERR line too long");
+                connection.closing = true;
+            }
+            flush(key);
+        }
+
+        private void reply(Connection connection, String line) {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+            if (connection.out.remaining() < bytes.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(connection.out.capacity() * 2, connection.out.position() + bytes.length));
+                connection.out.flip();
+                bigger.put(connection.out);
+                connection.out = bigger;
+            }
+            connection.out.put(bytes);
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer out = connection.out;
+            out.flip();
+            ((SocketChannel) key.channel()).write(out);
+            boolean pending = out.hasRemaining();
+            out.compact();
+            if (pending) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (connection.closing) {
+                closeQuietly(key);
+            } else {
+                if (out.capacity() > BUFFER_SIZE)
+                    connection.out = ByteBuffer.allocate(BUFFER_SIZE);
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void closeQuietly(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Usage: GameServer [--port n] [--loops n] [--max-games n] [--idle-timeout seconds] [--metrics]
+     * [--journal file] [--snapshot-interval seconds]
+     * <p>
+     * --metrics turns on MoveMetrics and publishes them over JMX. --journal keeps the games in the file across
+     * restarts; the server snapshots them on shutdown as well as every interval.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        int loopCount = Runtime.getRuntime().availableProcessors();
+        int maxGames = 100000;
+        long idleSeconds = 3600;
+        Path journalFile = null;
+        long snapshotSeconds = DEFAULT_SNAPSHOT_INTERVAL_MS / 1000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--loops":
+                    loopCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-games":
+                    maxGames = Integer.parseInt(args[++i]);
+                    break;
+                case "--idle-timeout":
+                    idleSeconds = Long.parseLong(args[++i]);
+                    break;
+                case "--journal":
+                    journalFile = Paths.get(args[++i]);
+                    break;
+                case "--snapshot-interval":
+                    snapshotSeconds = Long.parseLong(args[++i]);
+                    break;
+                case "--metrics":
+                    MoveMetrics.enable(true);
+                    MoveMetrics.register();
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        GameServer server = new GameServer(port, loopCount, maxGames, idleSeconds * 1000);
+        if (journalFile != null) {
+            long start = System.nanoTime();
+            int restored = server.useJournal(journalFile, snapshotSeconds * 1000);
+            System.out.printf("Restored %d game(s) from %s in %.1f ms.%n", restored, journalFile,
+                    (System.nanoTime() - start) / 1e6);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    System.err.println("Final snapshot failed: " + e);
+                }
+            }));
+        }
+        server.start();
+        System.out.println("Serving games on port " + server.getPort() + " with " + loopCount + " loop(s).");
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,168 @@
+import java.nio.ByteBuffer;
+
+/**
+ * One game hosted by the GameServer.
+ *
+ * Every method that touches the board is synchronized, so two players sending moves for the same game at
+ * the same time are applied one after the other and never race on the board.
+ */
+public class GameSession {
+    /*
+    Saved state, see save(): position (PositionCodec.POSITION_BYTES), plies (4), plies since the last
+    capture or man move (4), number of history hashes (2), then the hashes a repetition can still match
+     */
+    final static int MAX_STATE_BYTES = PositionCodec.POSITION_BYTES + 4 + 4 + 2 + 8 * BoardHandler.HISTORY_SIZE;
+
+    //results of play()
+    final static int PLAYED = 0;
+    final static int ILLEGAL = 1;
+    final static int GAME_OVER = 2;
+
+    private final long id;
+    private final BoardHandler board = new BoardHandler();
+    private final long[] moves = new long[BoardHandler.MAX_MOVES];
+    private volatile long lastActive;
+    private int plies;
+    private boolean saved;//false while the board has changed since the last save()
+
+    GameSession(long id) {
+        this.id = id;
+        board.newGame();
+        lastActive = System.currentTimeMillis();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Applies one move step for the piece on the start square, unless the game is over.
+     *
+     * @return the packed result of {@link BoardHandler#move(int, int, int, int, int)}, with reason
+     * BoardHandler.GAME_OVER if the game had already ended
+     */
+    public synchronized long move(int startRow, int startCol, int endRow, int endCol) {
+        lastActive = System.currentTimeMillis();
+        if (board.getGameState() != BoardHandler.IN_PROGRESS)
+            return (long) BoardHandler.GAME_OVER << 32;
+        int start = BoardHandler.square(startRow, startCol);
+        int color = start < 0 ? BoardHandler.UNOCCUPIED : board.pieceAt(start);
+        long result = board.move(color, startRow, startCol, endRow, endCol);
+        if (BoardHandler.statusOf(result) == BoardHandler.normal) {
+            plies++;
+            board.discardUndo();//nobody takes moves back here; keeps the session small
+        }
+        if (BoardHandler.statusOf(result) >= 0)
+            saved = false;
+        return result;
+    }
+
+    /**
+     * Plays a whole legal move, multi-jumps included, given by its start and end squares, unless the game is over.
+     *
+     * @return PLAYED, ILLEGAL if no legal move goes from the start to the end square, or GAME_OVER
+     */
+    public synchronized int play(int startRow, int startCol, int endRow, int endCol) {
+        lastActive = System.currentTimeMillis();
+        if (board.getGameState() != BoardHandler.IN_PROGRESS)
+            return GAME_OVER;
+        int start = BoardHandler.square(startRow, startCol);
+        int end = BoardHandler.square(endRow, endCol);
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (BoardHandler.moveStart(moves[i]) == start && BoardHandler.moveEnd(moves[i]) == end) {
+                board.playMove(moves[i]);
+                board.discardUndo();
+                plies++;
+                saved = false;
+                return PLAYED;
+            }
+        }
+        return ILLEGAL;
+    }
+
+    /**
+     * @return the legal moves for the side to move, comma separated, in "row col - row col" form
+     */
+    public synchronized String legalMoves() {
+        lastActive = System.currentTimeMillis();
+        int count = board.generateMoves(moves);
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                list.append(", ");
+            list.append(BoardHandler.moveToString(moves[i]));
+        }
+        return list.toString();
+    }
+
+    public synchronized String getFen() {
+        return board.getFen();
+    }
+
+    /**
+     * @return null while the game goes on, otherwise BLACK or WHITE for the winner, or DRAW
+     */
+    public synchronized String getResult() {
+        switch (board.getGameState()) {
+            case BoardHandler.IN_PROGRESS:
+                return null;
+            case BoardHandler.BLACK_WON:
+                return "BLACK";
+            case BoardHandler.WHITE_WON:
+                return "WHITE";
+            default:
+                return "DRAW";
+        }
+    }
+
+    public synchronized int getPlies() {
+        return plies;
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * @return true if the last save() holds the current state
+     */
+    synchronized boolean isSaved() {
+        return saved;
+    }
+
+    /**
+     * Writes the game's state, at most MAX_STATE_BYTES, at the buffer's position.
+     */
+    synchronized void save(ByteBuffer out, long[] hashes) {
+        PositionCodec.encode(board, out);
+        out.putInt(plies);
+        out.putInt(board.getPliesSinceProgress());
+        int count = board.getRecentHashes(hashes);
+        out.putShort((short) count);
+        for (int i = 0; i < count; i++)
+            out.putLong(hashes[i]);
+        saved = true;
+    }
+
+    /**
+     * Brings back a game written by save(). Its idle time starts over.
+     *
+     * @param hashes scratch space of HISTORY_SIZE entries
+     * @throws IllegalArgumentException if the bytes do not describe a game
+     */
+    static GameSession restore(long id, ByteBuffer in, long[] hashes) {
+        GameSession session = new GameSession(id);
+        PositionCodec.decode(in, session.board);
+        session.plies = in.getInt();
+        int pliesSinceProgress = in.getInt();
+        int count = in.getShort() & 0xFFFF;
+        if (count > hashes.length)
+            throw new IllegalArgumentException("History of " + count + " turns in a saved game");
+        for (int i = 0; i < count; i++)
+            hashes[i] = in.getLong();
+        session.board.restoreHistory(hashes, count, pliesSinceProgress);
+        session.saved = true;
+        return session;
+    }
+}
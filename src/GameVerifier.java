@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays whole archives of recorded games against the rules and reports the first illegal move of each game.
+ *
+ * The calling thread reads the stream into batches of BATCH_SIZE games and worker threads replay them, each
+ * on its own board. Batches and the records in them go back to a free list once replayed, so after the first
+ * few batches nothing is allocated however long the archive is. Every move is checked against the moves
+ * BoardHandler generates for its position, which Perft keeps in step with makeMove.
+ */
+public class GameVerifier {
+    final static int BATCH_SIZE = 256;
+    final static int BAD_START = -2;//reported instead of a move index when the start position cannot be decoded
+
+    /**
+     * Told about every game that does not replay. Called from the worker threads, so it has to be thread safe.
+     */
+    interface Listener {
+        /**
+         * @param game   number of the game in the stream, counted from 0
+         * @param record the game; only valid until the call returns
+         * @param move   index of the first illegal move, or BAD_START
+         */
+        void illegal(long game, GameRecord record, int move);
+    }
+
+    private static class Batch {
+        final GameRecord[] records = new GameRecord[BATCH_SIZE];
+        long firstGame;
+        int count;
+
+        Batch() {
+            for (int i = 0; i < BATCH_SIZE; i++)
+                records[i] = new GameRecord();
+        }
+    }
+
+    private final static Batch END = new Batch();
+
+    private final int threads;
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder illegalGames = new LongAdder();
+
+    public GameVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Replays every game in the stream. Totals keep adding up over several calls.
+     *
+     * @return number of games in this stream with an illegal move
+     * @throws IOException if the stream is not a game-record stream or ends inside a game
+     */
+    public long verify(ReadableByteChannel channel, Listener listener) throws IOException, InterruptedException {
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(threads * 2);
+        BlockingQueue<Batch> full = new ArrayBlockingQueue<>(threads * 2 + threads);
+        for (int i = 0; i < threads * 2; i++)
+            free.add(new Batch());
+        long illegalBefore = illegalGames.sum();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                BoardHandler board = new BoardHandler();
+                for (Batch batch; (batch = full.take()) != END; ) {
+                    replay(batch, board, listener);
+                    free.put(batch);
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        try (GameRecordReader reader = new GameRecordReader(channel)) {
+            long read = 0;
+            while (true) {
+                Batch batch = null;
+                //a failed worker stops taking batches, so never wait on the free list for long
+                while (batch == null) {
+                    checkWorkers(workers);
+                    batch = free.poll(100, TimeUnit.MILLISECONDS);
+                }
+                batch.firstGame = read;
+                batch.count = 0;
+                while (batch.count < BATCH_SIZE && reader.next(batch.records[batch.count]))
+                    batch.count++;
+                read += batch.count;
+                if (batch.count > 0)
+                    full.put(batch);
+                if (batch.count < BATCH_SIZE)
+                    break;
+            }
+        } finally {
+            for (int t = 0; t < threads; t++)
+                full.put(END);
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Verifier worker failed", e.getCause());
+                }
+            }
+        }
+        return illegalGames.sum() - illegalBefore;
+    }
+
+    private static void checkWorkers(List<Future<?>> workers) {
+        for (Future<?> worker : workers) {
+            if (worker.isDone()) {
+                try {
+                    worker.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    throw new IllegalStateException("Verifier worker failed", e);
+                }
+            }
+        }
+    }
+
+    private void replay(Batch batch, BoardHandler board, Listener listener) {
+        long replayed = 0;
+        int illegal = 0;
+        for (int i = 0; i < batch.count; i++) {
+            GameRecord record = batch.records[i];
+            int first;
+            try {
+                first = record.replay(board);
+            } catch (IllegalArgumentException e) {
+                first = BAD_START;
+            }
+            replayed += first == -1 ? record.getMoveCount() : Math.max(first, 0);
+            if (first != -1) {
+                illegal++;
+                listener.illegal(batch.firstGame + i, record, first);
+            }
+        }
+        games.add(batch.count);
+        moves.add(replayed);
+        illegalGames.add(illegal);
+    }
+
+    public long getGames() {
+        return games.sum();
+    }
+
+    /**
+     * @return legal moves replayed, counting the moves of illegal games up to the first bad one
+     */
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    public long getIllegalGames() {
+        return illegalGames.sum();
+    }
+
+    /**
+     * Usage: GameVerifier [--threads n] [--quiet] file...
+     *
+     * Prints every game that does not replay, then the totals. Exits with 1 if any game was illegal.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean quiet = false;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    files.add(Paths.get(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: GameVerifier [--threads n] [--quiet] file...");
+            System.exit(2);
+        }
+
+        GameVerifier verifier = new GameVerifier(threads);
+        long start = System.nanoTime();
+        for (Path file : files) {
+            boolean print = !quiet;
+            verifier.verify(FileChannel.open(file, StandardOpenOption.READ), (game, record, move) -> {
+                if (!print)
+                    return;
+                String where = move == BAD_START ? "its start position cannot be decoded"
+                        : "ply " + (move + 1) + " is illegal";
+                synchronized (System.out) {
+                    System.out.println(file + ": game " + (game + 1) + ": " + where);
+                }
+            });
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d moves, %d illegal games in %.2f s (%.0f moves/s) on %d threads%n",
+                verifier.getGames(), verifier.getMoves(), verifier.getIllegalGames(), seconds,
+                verifier.getMoves() / seconds, threads);
+        if (verifier.getIllegalGames() > 0)
+            System.exit(1);
+    }
+}
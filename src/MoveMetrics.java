@@ -0,0 +1,175 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts and times BoardHandler.move calls, makeMove included, by the status code they end with.
+ *
+ * Off by default; while off, a move pays for one read of the enabled flag. While on, a call costs two
+ * clock reads, a counter add and one histogram add, all on preallocated state. Read the numbers through
+ * JMX after {@link #register()}, or as text from {@link #report()} and {@link #line()}.
+ */
+public final class MoveMetrics implements MoveMetricsMXBean {
+    final static String OBJECT_NAME = "checkers:type=MoveMetrics";
+
+    //status names indexed by opCode - forceJump
+    private final static String[] STATUS_NAMES = {"forceJump", "insufficientPermissions", "tooFar", "usedSpace",
+            "outOfBounds", "normal", "goAgain"};
+    private final static MoveMetrics INSTANCE = new MoveMetrics();
+
+    private static volatile boolean enabled;
+    private final static LongAdder[] STATUS_COUNTS = new LongAdder[STATUS_NAMES.length];
+    private final static LatencyHistogram[] LATENCIES = new LatencyHistogram[STATUS_NAMES.length];
+    private final static LongAdder CONTINUATIONS = new LongAdder();
+
+    static {
+        for (int i = 0; i < STATUS_NAMES.length; i++) {
+            STATUS_COUNTS[i] = new LongAdder();
+            LATENCIES[i] = new LatencyHistogram();
+        }
+    }
+
+    private MoveMetrics() {
+    }
+
+    static boolean on() {
+        return enabled;
+    }
+
+    static void enable(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @param opCode       status the call ended with
+     * @param nanos        time the call took
+     * @param continuation true if the call continued a multi-jump
+     */
+    static void recordMakeMove(int opCode, long nanos, boolean continuation) {
+        int index = opCode - BoardHandler.forceJump;
+        if (index < 0 || index >= STATUS_NAMES.length)
+            return;
+        STATUS_COUNTS[index].increment();
+        LATENCIES[index].record(nanos);
+        if (continuation)
+            CONTINUATIONS.increment();
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server. Calling it again does nothing.
+     */
+    static synchronized void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * @return one line per status: calls, median, 99th percentile and largest time
+     */
+    static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("makeMove calls %d, multi-jump continuations %d, metrics %s%n",
+                totalMoves(), CONTINUATIONS.sum(), enabled ? "on" : "off"));
+        for (int i = 0; i < STATUS_NAMES.length; i++) {
+            long count = STATUS_COUNTS[i].sum();
+            if (count == 0)
+                continue;
+            report.append(String.format("  %-24s %12d  p50 %8d ns  p99 %8d ns  max %10d ns%n", STATUS_NAMES[i], count,
+                    LATENCIES[i].getPercentile(50), LATENCIES[i].getPercentile(99), LATENCIES[i].getMax()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return the same numbers as {@link #report()} as space separated name=value pairs on one line
+     */
+    static String line() {
+        StringBuilder line = new StringBuilder();
+        line.append("enabled=").append(enabled).append(" moves=").append(totalMoves())
+                .append(" continuations=").append(CONTINUATIONS.sum());
+        for (int i = 0; i < STATUS_NAMES.length; i++) {
+            long count = STATUS_COUNTS[i].sum();
+            if (count == 0)
+                continue;
+            line.append(' ').append(STATUS_NAMES[i]).append("=").append(count)
+                    .append(' ').append(STATUS_NAMES[i]).append(".p50=").append(LATENCIES[i].getPercentile(50))
+                    .append(' ').append(STATUS_NAMES[i]).append(".p99=").append(LATENCIES[i].getPercentile(99));
+        }
+        return line.toString();
+    }
+
+    static void clear() {
+        for (int i = 0; i < STATUS_NAMES.length; i++) {
+            STATUS_COUNTS[i].reset();
+            LATENCIES[i].reset();
+        }
+        CONTINUATIONS.reset();
+    }
+
+    private static long totalMoves() {
+        long total = 0;
+        for (LongAdder count : STATUS_COUNTS)
+            total += count.sum();
+        return total;
+    }
+
+    private static Map<String, Long> byStatus(double percentile) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (int i = 0; i < STATUS_NAMES.length; i++)
+            values.put(STATUS_NAMES[i], percentile < 0 ? STATUS_COUNTS[i].sum() : LATENCIES[i].getPercentile(percentile));
+        return values;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    @Override
+    public long getMoves() {
+        return totalMoves();
+    }
+
+    @Override
+    public long getContinuations() {
+        return CONTINUATIONS.sum();
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        return byStatus(-1);
+    }
+
+    @Override
+    public Map<String, Long> getMedianNanos() {
+        return byStatus(50);
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return byStatus(99);
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    @Override
+    public void reset() {
+        clear();
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.Map;
+
+/**
+ * Management view of {@link MoveMetrics}, registered as "checkers:type=MoveMetrics".
+ */
+public interface MoveMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getMoves();
+
+    long getContinuations();
+
+    /**
+     * @return makeMove calls by status name
+     */
+    Map<String, Long> getStatusCounts();
+
+    /**
+     * @return median makeMove time in nanoseconds by status name
+     */
+    Map<String, Long> getMedianNanos();
+
+    /**
+     * @return 99th percentile makeMove time in nanoseconds by status name
+     */
+    Map<String, Long> getP99Nanos();
+
+    String getReport();
+
+    void reset();
+}
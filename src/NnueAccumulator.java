@@ -0,0 +1,74 @@
+/**
+ * First-layer sums of an NnueNetwork for one board, from black's view and from white's, kept up to date as
+ * pieces move, are captured and are crowned.
+ *
+ * A move changes only a few features, so it costs a few rows of weights instead of a pass over the whole board.
+ * BoardHandler saves both sums with each undo entry and copies them back on unmake, which is cheaper than
+ * running the move's changes backwards for the small layers used here.
+ */
+class NnueAccumulator {
+    final NnueNetwork network;
+    private final int hidden;
+    final short[] black;
+    final short[] white;
+    private short[] saved;//both sums per undo entry, black's first
+    private final int[] input;//clipped sums for the network's later layers
+
+    NnueAccumulator(NnueNetwork network, int capacity) {
+        this.network = network;
+        this.hidden = network.hidden;
+        black = new short[hidden];
+        white = new short[hidden];
+        saved = new short[capacity * 2 * hidden];
+        input = new int[2 * hidden];
+    }
+
+    void refresh(int blacks, int whites, int kings) {
+        network.refresh(black, blacks, whites, kings, true);
+        network.refresh(white, blacks, whites, kings, false);
+    }
+
+    void add(int piece, int sq) {
+        network.addFeature(black, NnueNetwork.feature(piece, sq, true));
+        network.addFeature(white, NnueNetwork.feature(piece, sq, false));
+    }
+
+    void remove(int piece, int sq) {
+        network.removeFeature(black, NnueNetwork.feature(piece, sq, true));
+        network.removeFeature(white, NnueNetwork.feature(piece, sq, false));
+    }
+
+    void move(int piece, int from, int to) {
+        network.moveFeature(black, NnueNetwork.feature(piece, from, true), NnueNetwork.feature(piece, to, true));
+        network.moveFeature(white, NnueNetwork.feature(piece, from, false), NnueNetwork.feature(piece, to, false));
+    }
+
+    /**
+     * Swaps the piece on a square for another one, as when a man is crowned.
+     */
+    void replace(int oldPiece, int newPiece, int sq) {
+        network.moveFeature(black, NnueNetwork.feature(oldPiece, sq, true), NnueNetwork.feature(newPiece, sq, true));
+        network.moveFeature(white, NnueNetwork.feature(oldPiece, sq, false), NnueNetwork.feature(newPiece, sq, false));
+    }
+
+    void save(int index) {
+        int offset = index * 2 * hidden;
+        if (offset + 2 * hidden > saved.length)
+            saved = java.util.Arrays.copyOf(saved, Math.max(saved.length * 2, offset + 2 * hidden));
+        System.arraycopy(black, 0, saved, offset, hidden);
+        System.arraycopy(white, 0, saved, offset + hidden, hidden);
+    }
+
+    void restore(int index) {
+        int offset = index * 2 * hidden;
+        System.arraycopy(saved, offset, black, 0, hidden);
+        System.arraycopy(saved, offset + hidden, white, 0, hidden);
+    }
+
+    /**
+     * @return score from the point of view of the side to move
+     */
+    int evaluate(boolean blackToMove) {
+        return blackToMove ? network.evaluate(black, white, input) : network.evaluate(white, black, input);
+    }
+}
@@ -0,0 +1,41 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Evaluation by an NnueNetwork instead of hand-made terms.
+ *
+ * A board given this evaluator through setEvaluator keeps the network's accumulators up to date itself, so a
+ * leaf only runs the small layers after the first. The board's piece-square score stays on the default tables
+ * for the move ordering and anything else that reads it.
+ */
+public class NnueEvaluator extends Evaluator {
+    private final NnueNetwork network;
+
+    NnueEvaluator(NnueNetwork network) {
+        super(new java.util.HashMap<>());
+        this.network = network;
+    }
+
+    /**
+     * @throws IOException if the file cannot be read or is not a network file
+     */
+    static NnueEvaluator load(Path file) throws IOException {
+        return new NnueEvaluator(NnueNetwork.load(file));
+    }
+
+    @Override
+    NnueNetwork getNetwork() {
+        return network;
+    }
+
+    @Override
+    int evaluate(BoardHandler board) {
+        NnueAccumulator accumulator = board.getAccumulator();
+        if (accumulator == null || accumulator.network != network) {
+            //a board set up for another evaluator; slow, but only outside a search
+            accumulator = new NnueAccumulator(network, 1);
+            accumulator.refresh(board.getBlacks(), board.getWhites(), board.getKings());
+        }
+        return accumulator.evaluate(board.isBlackTurn());
+    }
+}
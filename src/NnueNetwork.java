@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Quantized weights of an efficiently updatable evaluation network, and the integer arithmetic that runs it.
+ *
+ * The input is one feature per piece kind and square, seen from one side: own man, own king, opponent man
+ * and opponent king on each of the 32 squares, with white's view turned half a circle so both sides see
+ * their own pieces start at the top. The first layer sums int16 weight rows into an int16 accumulator per
+ * view, which NnueAccumulator keeps up to date move by move. The two accumulators, side to move first, are
+ * clipped to 0 - ACTIVATION_MAX and go through a small int8 layer, clipped again, and an int8 output.
+ *
+ * The loops are plain counted loops over primitive arrays, which HotSpot's C2 compiles to SIMD instructions
+ * on its own; the Vector API is only an incubator module in Java 17 and would need extra flags at every
+ * compile and run. C2 in Java 17 does not vectorize a sum over mixed element types, so the int8 weights of the
+ * second layer are held widened to int and the clipped inputs are written to an int buffer once per call.
+ *
+ * File format, big-endian:
+ * <pre>
+ * int   MAGIC, VERSION, hidden, hidden2, outputDivisor
+ * short featureWeights[FEATURES * hidden]   one row of hidden weights per feature
+ * short featureBias[hidden]
+ * byte  l2Weights[hidden2 * 2 * hidden]      one row per second-layer unit, side to move's half first
+ * int   l2Bias[hidden2]
+ * byte  outWeights[hidden2]
+ * int   outBias
+ * </pre>
+ */
+public class NnueNetwork {
+    final static int MAGIC = 0x434B4E4E;//"CKNN"
+    final static int VERSION = 1;
+    final static int FEATURES = 4 * 32;
+    final static int ACTIVATION_MAX = 127;
+    final static int L2_SHIFT = 6;//second-layer sums are scaled down by 2^L2_SHIFT before clipping
+    private final static int MAX_HIDDEN = 1024;
+
+    final int hidden;
+    final int hidden2;
+    final short[] featureWeights;
+    final short[] featureBias;
+    final int[] l2Weights;//int8 values, see above
+    final int[] l2Bias;
+    final byte[] outWeights;
+    int outBias;
+    int outputDivisor = 1;
+
+    NnueNetwork(int hidden, int hidden2) {
+        if (hidden < 1 || hidden > MAX_HIDDEN || hidden2 < 1 || hidden2 > MAX_HIDDEN)
+            throw new IllegalArgumentException("Layer sizes must be 1 - " + MAX_HIDDEN + ": " + hidden + ", " + hidden2);
+        this.hidden = hidden;
+        this.hidden2 = hidden2;
+        featureWeights = new short[FEATURES * hidden];
+        featureBias = new short[hidden];
+        l2Weights = new int[hidden2 * 2 * hidden];
+        l2Bias = new int[hidden2];
+        outWeights = new byte[hidden2];
+    }
+
+    /**
+     * @throws IOException if the file cannot be read or is not a network of this version
+     */
+    static NnueNetwork load(Path file) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Network file too large: " + file);
+            in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+            }
+            in.flip();
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                throw new IOException("Not a version " + VERSION + " network file: " + file);
+            NnueNetwork network = new NnueNetwork(in.getInt(), in.getInt());
+            network.outputDivisor = in.getInt();
+            if (network.outputDivisor < 1)
+                throw new IOException("Output divisor must be positive in " + file);
+            in.asShortBuffer().get(network.featureWeights);
+            in.position(in.position() + network.featureWeights.length * 2);
+            in.asShortBuffer().get(network.featureBias);
+            in.position(in.position() + network.featureBias.length * 2);
+            for (int i = 0; i < network.l2Weights.length; i++)
+                network.l2Weights[i] = in.get();
+            in.asIntBuffer().get(network.l2Bias);
+            in.position(in.position() + network.l2Bias.length * 4);
+            in.get(network.outWeights);
+            network.outBias = in.getInt();
+            if (in.hasRemaining())
+                throw new IOException("Trailing bytes after the network in " + file);
+            return network;
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("Network file cut short: " + file, e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad layer sizes in " + file, e);
+        }
+    }
+
+    void write(Path file) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(20 + featureWeights.length * 2 + featureBias.length * 2 + l2Weights.length
+                + l2Bias.length * 4 + outWeights.length + 4);
+        out.putInt(MAGIC).putInt(VERSION).putInt(hidden).putInt(hidden2).putInt(outputDivisor);
+        for (short weight : featureWeights)
+            out.putShort(weight);
+        for (short bias : featureBias)
+            out.putShort(bias);
+        for (int weight : l2Weights)
+            out.put((byte) weight);
+        for (int bias : l2Bias)
+            out.putInt(bias);
+        out.put(outWeights);
+        out.putInt(outBias);
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining())
+                channel.write(out);
+        }
+    }
+
+    /**
+     * Builds a network that approximates the piece-square part of a classic evaluation, to play with until
+     * trained weights exist. Each view counts its own and the opponent's piece values in one unit each, in
+     * steps of 1/valueStep of the table, and the output takes the difference.
+     */
+    static NnueNetwork fromPieceSquare(Evaluator classic) {
+        int[][] table = classic.getPieceSquare();
+        int largest = 1;
+        for (int sq = 0; sq < 32; sq++)
+            largest = Math.max(largest, Math.max(table[BoardHandler.BLACK][sq], table[BoardHandler.BLACK_KING][sq]));
+        //twelve of the most valuable pieces must still fit under the clip
+        int valueStep = Math.max(1, (largest * 12 + ACTIVATION_MAX - 1) / ACTIVATION_MAX);
+
+        NnueNetwork network = new NnueNetwork(2, 2);
+        for (int sq = 0; sq < 32; sq++) {
+            int man = Math.round((float) table[BoardHandler.BLACK][sq] / valueStep);
+            int king = Math.round((float) table[BoardHandler.BLACK_KING][sq] / valueStep);
+            //unit 0 counts own pieces, unit 1 the opponent's, both seen from black's side of the board
+            network.featureWeights[sq * network.hidden] = (short) man;
+            network.featureWeights[(32 + sq) * network.hidden] = (short) king;
+            network.featureWeights[(64 + (31 - sq)) * network.hidden + 1] = (short) man;
+            network.featureWeights[(96 + (31 - sq)) * network.hidden + 1] = (short) king;
+        }
+        //second layer: own minus opponent and the other way round, from the side to move's accumulator
+        int unity = 1 << L2_SHIFT;
+        network.l2Weights[0] = unity;
+        network.l2Weights[1] = -unity;
+        network.l2Weights[2 * network.hidden] = -unity;
+        network.l2Weights[2 * network.hidden + 1] = unity;
+        network.outWeights[0] = (byte) valueStep;
+        network.outWeights[1] = (byte) -valueStep;
+        return network;
+    }
+
+    /**
+     * @return a network with small random weights, for benchmarks and tests of the file format
+     */
+    static NnueNetwork random(int hidden, int hidden2, long seed) {
+        Random random = new Random(seed);
+        NnueNetwork network = new NnueNetwork(hidden, hidden2);
+        for (int i = 0; i < network.featureWeights.length; i++)
+            network.featureWeights[i] = (short) (random.nextInt(17) - 8);
+        for (int i = 0; i < network.featureBias.length; i++)
+            network.featureBias[i] = (short) random.nextInt(32);
+        for (int i = 0; i < network.l2Weights.length; i++)
+            network.l2Weights[i] = random.nextInt(33) - 16;
+        for (int i = 0; i < network.outWeights.length; i++)
+            network.outWeights[i] = (byte) (random.nextInt(65) - 32);
+        network.outputDivisor = 16;
+        return network;
+    }
+
+    /**
+     * @param piece     BoardHandler color code of the piece
+     * @param blackView true for black's accumulator, false for white's
+     * @return the feature the piece on the square sets in that view
+     */
+    static int feature(int piece, int sq, boolean blackView) {
+        boolean black = piece == BoardHandler.BLACK || piece == BoardHandler.BLACK_KING;
+        boolean king = piece == BoardHandler.BLACK_KING || piece == BoardHandler.WHITE_KING;
+        int kind = (black == blackView ? 0 : 2) + (king ? 1 : 0);
+        return kind * 32 + (blackView ? sq : 31 - sq);
+    }
+
+    void addFeature(short[] accumulator, int feature) {
+        short[] weights = featureWeights;
+        int row = feature * hidden;
+        for (int i = 0; i < hidden; i++)
+            accumulator[i] += weights[row + i];
+    }
+
+    void removeFeature(short[] accumulator, int feature) {
+        short[] weights = featureWeights;
+        int row = feature * hidden;
+        for (int i = 0; i < hidden; i++)
+            accumulator[i] -= weights[row + i];
+    }
+
+    /**
+     * Moves a piece in one accumulator: one row out, one row in, in a single pass.
+     */
+    void moveFeature(short[] accumulator, int from, int to) {
+        short[] weights = featureWeights;
+        int fromRow = from * hidden;
+        int toRow = to * hidden;
+        for (int i = 0; i < hidden; i++)
+            accumulator[i] += weights[toRow + i] - weights[fromRow + i];
+    }
+
+    /**
+     * Fills an accumulator from scratch.
+     */
+    void refresh(short[] accumulator, int blacks, int whites, int kings, boolean blackView) {
+        System.arraycopy(featureBias, 0, accumulator, 0, hidden);
+        for (int pieces = blacks | whites; pieces != 0; pieces &= pieces - 1) {
+            int sq = Integer.numberOfTrailingZeros(pieces);
+            int bit = 1 << sq;
+            boolean king = (kings & bit) != 0;
+            int piece = (blacks & bit) != 0 ? (king ? BoardHandler.BLACK_KING : BoardHandler.BLACK)
+                    : (king ? BoardHandler.WHITE_KING : BoardHandler.WHITE);
+            addFeature(accumulator, feature(piece, sq, blackView));
+        }
+    }
+
+    /**
+     * @param toMove   accumulator of the side to move
+     * @param opponent accumulator of the other side
+     * @param input    scratch buffer of 2 * hidden entries for the clipped accumulators
+     * @return score from the point of view of the side to move
+     */
+    int evaluate(short[] toMove, short[] opponent, int[] input) {
+        clip(toMove, input, 0);
+        clip(opponent, input, hidden);
+        int[] weights = l2Weights;
+        int inputs = 2 * hidden;
+        int output = outBias;
+        for (int unit = 0; unit < hidden2; unit++) {
+            int row = unit * inputs;
+            int sum = 0;
+            for (int i = 0; i < inputs; i++)
+                sum += input[i] * weights[row + i];
+            int activation = Math.min(Math.max((l2Bias[unit] + sum) >> L2_SHIFT, 0), ACTIVATION_MAX);
+            output += activation * outWeights[unit];
+        }
+        return output / outputDivisor;
+    }
+
+    private void clip(short[] accumulator, int[] input, int offset) {
+        for (int i = 0; i < hidden; i++)
+            input[offset + i] = Math.min(Math.max(accumulator[i], 0), ACTIVATION_MAX);
+    }
+
+    /**
+     * Usage: NnueNetwork --piece-square [weights.txt] out | --random hidden hidden2 seed out
+     *
+     * Writes a starting network: one that copies a classic evaluation's piece-square tables, or random weights.
+     */
+    public static void main(String[] args) throws IOException {
+        NnueNetwork network;
+        Path out;
+        if (args.length >= 2 && args[0].equals("--piece-square")) {
+            Evaluator classic = args.length >= 3 ? Evaluator.load(java.nio.file.Paths.get(args[1])) : Evaluator.DEFAULT;
+            network = fromPieceSquare(classic);
+            out = java.nio.file.Paths.get(args[args.length - 1]);
+        } else if (args.length == 5 && args[0].equals("--random")) {
+            network = random(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3]));
+            out = java.nio.file.Paths.get(args[4]);
+        } else {
+            System.err.println("Usage: NnueNetwork --piece-square [weights.txt] out | --random hidden hidden2 seed out");
+            System.exit(2);
+            return;
+        }
+        network.write(out);
+        System.out.println("Wrote a " + FEATURES + "x" + network.hidden + "x2 -> " + network.hidden2 + " -> 1 network to " + out);
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Book moves for opening positions, read from a file built by OpeningBookBuilder.
+ *
+ * Nothing is read until the first probe, which maps the file; the entries stay off the heap after that.
+ * Each entry is 16 bytes: the position's BoardHandler hash, the move as a GameRecord code, the score the
+ * side to move made with it in permille and how many games it was played in. Entries are sorted by hash,
+ * and an index of the first entry for every value of the top index bits of the hash narrows a lookup down
+ * to a handful of entries. The hash keys are part of the file format, so books have to be rebuilt if the
+ * Zobrist keys in BoardHandler ever change.
+ *
+ * File layout, big-endian: MAGIC, VERSION, the ply the book was built to, the number of index bits, the
+ * number of entries, then the index as 2^bits + 1 ints, then the entries.
+ */
+public class OpeningBook {
+    final static int MAGIC = 0x434B4F42;//"CKOB"
+    final static int VERSION = 1;
+    final static int HEADER_BYTES = 20;
+    final static int ENTRY_BYTES = 16;
+
+    //How probe picks among the book moves of a position
+    final static int BEST = 0;//highest score, then most games
+    final static int WEIGHTED = 1;//at random, in proportion to games times score
+
+    private final Path file;
+    private volatile MappedByteBuffer data;
+    private int indexBits;
+    private int entryCount;
+    private int entriesStart;
+    private int builtToPly;
+
+    private int weighting = WEIGHTED;
+    private int maxPly = Integer.MAX_VALUE;
+    private int minGames = 1;
+
+    /**
+     * @param file book file, mapped on the first probe
+     */
+    public OpeningBook(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param weighting BEST or WEIGHTED
+     */
+    public void setWeighting(int weighting) {
+        this.weighting = weighting;
+    }
+
+    /**
+     * Stops answering once the game is longer than this many plies.
+     */
+    public void setMaxPly(int maxPly) {
+        this.maxPly = maxPly;
+    }
+
+    /**
+     * Ignores book moves played in fewer games than this.
+     */
+    public void setMinGames(int minGames) {
+        this.minGames = minGames;
+    }
+
+    /**
+     * Picks a book move, choosing at random with the thread's own generator when weighting is WEIGHTED.
+     * Allocates nothing once the book is mapped, so callers on many threads each bring their own scratch array.
+     *
+     * @param ply   plies played in the game so far
+     * @param moves scratch space of BoardHandler.MAX_MOVES entries
+     * @return a legal move, or SearchEngine.NO_MOVE if the book has none for the position
+     * @throws IOException if the book file cannot be mapped
+     */
+    public long probe(BoardHandler board, int ply, long[] moves) throws IOException {
+        return probe(board, ply, null, moves);
+    }
+
+    /**
+     * @param random generator for WEIGHTED picks, or null for the thread's own
+     */
+    public long probe(BoardHandler board, int ply, Random random, long[] moves) throws IOException {
+        if (ply > maxPly)
+            return SearchEngine.NO_MOVE;
+        MappedByteBuffer data = map();
+        long hash = board.getHash();
+        int bucket = (int) (hash >>> (64 - indexBits));
+        int first = indexBits == 0 ? 0 : data.getInt(HEADER_BYTES + bucket * 4);
+        int last = indexBits == 0 ? entryCount : data.getInt(HEADER_BYTES + bucket * 4 + 4);
+        while (first < last && data.getLong(entriesStart + first * ENTRY_BYTES) != hash)
+            first++;
+        if (first == last)
+            return SearchEngine.NO_MOVE;
+
+        int chosen = -1;
+        long total = 0;
+        long bestWeight = -1;
+        for (int i = first; i < last; i++) {
+            int entry = entriesStart + i * ENTRY_BYTES;
+            if (data.getLong(entry) != hash)
+                break;
+            int games = data.getInt(entry + 12);
+            int score = data.getShort(entry + 10);
+            if (games < minGames)
+                continue;
+            if (weighting == BEST) {
+                long weight = (long) score << 32 | games;
+                if (weight > bestWeight) {
+                    bestWeight = weight;
+                    chosen = i;
+                }
+            } else {
+                //weighted reservoir pick, so one pass is enough
+                long weight = (long) games * Math.max(score, 1);
+                total += weight;
+                long roll = random == null ? ThreadLocalRandom.current().nextLong(total) : (long) (random.nextDouble() * total);
+                if (roll < weight)
+                    chosen = i;
+            }
+        }
+        if (chosen < 0)
+            return SearchEngine.NO_MOVE;
+        int code = data.getShort(entriesStart + chosen * ENTRY_BYTES + 8) & 0xFFFF;
+        return GameRecord.decodeMove(board, code, moves);
+    }
+
+    /**
+     * @return number of moves in the book
+     */
+    public int size() throws IOException {
+        map();
+        return entryCount;
+    }
+
+    /**
+     * @return the ply the book was built to
+     */
+    public int getBuiltToPly() throws IOException {
+        map();
+        return builtToPly;
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        MappedByteBuffer mapped = data;
+        if (mapped != null)
+            return mapped;
+        synchronized (this) {
+            if (data != null)
+                return data;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("Opening book too large to map: " + file);
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (mapped.capacity() < HEADER_BYTES || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+                throw new IOException("Not an opening book: " + file);
+            builtToPly = mapped.getInt(8);
+            indexBits = mapped.getInt(12);
+            entryCount = mapped.getInt(16);
+            entriesStart = HEADER_BYTES + (indexBits == 0 ? 0 : ((1 << indexBits) + 1) * 4);
+            if (indexBits < 0 || indexBits > 24 || mapped.capacity() < entriesStart + (long) entryCount * ENTRY_BYTES)
+                throw new IOException("Opening book is damaged: " + file);
+            data = mapped;
+            return mapped;
+        }
+    }
+}
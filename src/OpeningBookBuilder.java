@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds OpeningBook files from recorded games and from deep searches of the opening.
+ *
+ * Games are replayed up to the ply cutoff and every move played is counted for its position together
+ * with how the game ended for the side that played it. Searched positions get the move the engine chose,
+ * counted as SEARCH_GAMES games at an even score, so recorded experience can still outweigh it.
+ */
+public class OpeningBookBuilder {
+    final static int SEARCH_GAMES = 1;
+    private final static int ENTRIES_PER_BUCKET = 4;
+
+    private final int maxPly;
+    private final Map<Long, List<Entry>> positions = new HashMap<>();
+    private final BoardHandler board = new BoardHandler();
+    private final long[] buffer = new long[BoardHandler.MAX_MOVES];
+    private long games;
+
+    private static class Entry {
+        final long hash;
+        final int code;
+        int games;
+        int halfPoints;
+
+        Entry(long hash, int code) {
+            this.hash = hash;
+            this.code = code;
+        }
+    }
+
+    /**
+     * @param maxPly moves after this many plies of a game are left out of the book
+     */
+    public OpeningBookBuilder(int maxPly) {
+        this.maxPly = maxPly;
+    }
+
+    /**
+     * Adds the opening of one game. Games stop counting at their first illegal move.
+     */
+    public void addGame(GameRecord record) {
+        record.startPosition(board);
+        int plies = Math.min(record.getMoveCount(), maxPly);
+        for (int i = 0; i < plies; i++) {
+            long move = GameRecord.decodeMove(board, record.getCode(i), buffer);
+            if (move == SearchEngine.NO_MOVE)
+                break;
+            int halfPoints = record.getResult() == GameRecord.DRAW || record.getResult() == GameRecord.UNKNOWN ? 1
+                    : (record.getResult() == GameRecord.BLACK_WINS) == board.isBlackTurn() ? 2 : 0;
+            add(board.getHash(), record.getCode(i), 1, halfPoints);
+            board.playMove(move);
+            board.discardUndo();
+        }
+        games++;
+    }
+
+    /**
+     * Adds every game in a file: PDN text if the name ends in .pdn, otherwise the binary game-record format.
+     */
+    public void addFile(Path file) throws IOException {
+        if (file.getFileName().toString().toLowerCase().endsWith(".pdn")) {
+            for (GameRecord record : Pdn.readAll(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)))
+                addGame(record);
+            return;
+        }
+        GameRecord record = new GameRecord();
+        try (GameRecordReader reader = new GameRecordReader(FileChannel.open(file, StandardOpenOption.READ))) {
+            while (reader.next(record))
+                addGame(record);
+        }
+    }
+
+    /**
+     * Adds every regular file in the directory.
+     */
+    public void addDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file))
+                    addFile(file);
+            }
+        }
+    }
+
+    /**
+     * Searches every position reachable from a new game in up to the given number of plies and adds the
+     * move the engine picks for each.
+     *
+     * @param plies       how deep to expand the opening tree, at most the ply cutoff
+     * @param timePerMove search time per position in milliseconds
+     * @return number of positions searched
+     */
+    public int addSearched(int plies, long timePerMove) {
+        SearchEngine engine = new SearchEngine();
+        BoardHandler root = new BoardHandler();
+        root.newGame();
+        Map<Long, Boolean> seen = new HashMap<>();
+        return expand(root, Math.min(plies, maxPly), timePerMove, engine, seen);
+    }
+
+    private int expand(BoardHandler position, int plies, long timePerMove, SearchEngine engine, Map<Long, Boolean> seen) {
+        if (plies <= 0 || seen.put(position.getHash(), Boolean.TRUE) != null)
+            return 0;
+        long best = engine.findBestMove(position, timePerMove);
+        if (best == SearchEngine.NO_MOVE)
+            return 0;
+        add(position.getHash(), GameRecord.encodeMove(position, best, buffer), SEARCH_GAMES, SEARCH_GAMES);
+        int searched = 1;
+        long[] moves = new long[BoardHandler.MAX_MOVES];
+        int count = position.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            position.playMove(moves[i]);
+            searched += expand(position, plies - 1, timePerMove, engine, seen);
+            position.unmakeMove();
+        }
+        return searched;
+    }
+
+    private void add(long hash, int code, int games, int halfPoints) {
+        List<Entry> moves = positions.computeIfAbsent(hash, h -> new ArrayList<>(2));
+        Entry entry = null;
+        for (Entry candidate : moves) {
+            if (candidate.code == code)
+                entry = candidate;
+        }
+        if (entry == null) {
+            entry = new Entry(hash, code);
+            moves.add(entry);
+        }
+        entry.games += games;
+        entry.halfPoints += halfPoints;
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * @return number of distinct position and move pairs so far
+     */
+    public int size() {
+        int size = 0;
+        for (List<Entry> moves : positions.values())
+            size += moves.size();
+        return size;
+    }
+
+    /**
+     * Writes the book in the OpeningBook format.
+     */
+    public void write(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>(size());
+        for (List<Entry> moves : positions.values())
+            entries.addAll(moves);
+        entries.sort((a, b) -> a.hash != b.hash ? Long.compareUnsigned(a.hash, b.hash) : Integer.compare(a.code, b.code));
+
+        int indexBits = 0;
+        while (indexBits < 24 && (long) ENTRIES_PER_BUCKET << indexBits < entries.size())
+            indexBits++;
+        int buckets = indexBits == 0 ? 0 : 1 << indexBits;
+        ByteBuffer out = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + (buckets == 0 ? 0 : (buckets + 1) * 4)
+                + entries.size() * OpeningBook.ENTRY_BYTES);
+        out.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(maxPly).putInt(indexBits).putInt(entries.size());
+        if (buckets > 0) {
+            int next = 0;
+            for (int bucket = 0; bucket <= buckets; bucket++) {
+                while (next < entries.size() && (entries.get(next).hash >>> (64 - indexBits)) < bucket)
+                    next++;
+                out.putInt(next);
+            }
+        }
+        for (Entry entry : entries) {
+            out.putLong(entry.hash);
+            out.putShort((short) entry.code);
+            out.putShort((short) (entry.halfPoints * 500L / entry.games));
+            out.putInt(entry.games);
+        }
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining())
+                channel.write(out);
+        }
+    }
+
+    /**
+     * Usage: OpeningBookBuilder [--games dir] [--search plies ms] [--max-ply n] out
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> gameDirectories = new ArrayList<>();
+        int searchPlies = 0;
+        long searchMs = 0;
+        int maxPly = 16;
+        Path out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--games":
+                    gameDirectories.add(Paths.get(args[++i]));
+                    break;
+                case "--search":
+                    searchPlies = Integer.parseInt(args[++i]);
+                    searchMs = Long.parseLong(args[++i]);
+                    break;
+                case "--max-ply":
+                    maxPly = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    out = Paths.get(args[i]);
+            }
+        }
+        if (out == null || (gameDirectories.isEmpty() && searchPlies == 0)) {
+            System.err.println("Usage: OpeningBookBuilder [--games dir] [--search plies ms] [--max-ply n] out");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        OpeningBookBuilder builder = new OpeningBookBuilder(maxPly);
+        for (Path directory : gameDirectories)
+            builder.addDirectory(directory);
+        int searched = searchPlies > 0 ? builder.addSearched(searchPlies, searchMs) : 0;
+        builder.write(out);
+        System.out.printf("Wrote %d book moves from %d games and %d searched positions to %s in %.1f s.%n",
+                builder.size(), builder.getGames(), searched, out, (System.nanoTime() - start) / 1e9);
+    }
+}
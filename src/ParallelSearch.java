@@ -0,0 +1,179 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches one position with several SearchEngines at once (Lazy SMP).
+ *
+ * Every engine searches the whole tree on its own board and they share one TranspositionTable, so each
+ * thread mostly profits from what the others have already stored. Helpers start at alternating depths to
+ * spread them over different parts of the tree. The calling thread runs the main engine; when it is done
+ * the helpers are stopped and the deepest finished result wins.
+ */
+public class ParallelSearch {
+    private final SearchEngine[] engines;
+    private final ExecutorService helpers;
+    private final TranspositionTable table;
+    private final long[] results;
+
+    private long nodes;
+    private long elapsedNanos;
+    private int completedDepth;
+    private int bestScore;
+
+    /**
+     * @param threads  number of engines, including the calling thread
+     * @param tableMb  size of the shared transposition table
+     */
+    public ParallelSearch(int threads, int tableMb) {
+        threads = Math.max(1, threads);
+        table = new TranspositionTable(tableMb);
+        engines = new SearchEngine[threads];
+        for (int i = 0; i < threads; i++)
+            engines[i] = new SearchEngine(table);
+        results = new long[threads];
+        helpers = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, r -> {
+            Thread t = new Thread(r, "search-helper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Searches the position on every thread until the time runs out or the depth limit is reached.
+     *
+     * @param position    position to search, left unchanged
+     * @param timeLimitMs wall-clock budget in milliseconds
+     * @return the best move found, or SearchEngine.NO_MOVE if the side to move has no legal moves
+     */
+    public long findBestMove(BoardHandler position, long timeLimitMs) {
+        long start = System.nanoTime();
+        long deadline = start + timeLimitMs * 1000000L;
+        table.newSearch();
+
+        Future<?>[] running = new Future<?>[engines.length];
+        for (int i = 1; i < engines.length; i++) {
+            int helper = i;
+            engines[i].clearStop();
+            running[i] = helpers.submit(() -> {
+                results[helper] = engines[helper].search(position, deadline, 1 + (helper & 1));
+            });
+        }
+        engines[0].clearStop();
+        results[0] = engines[0].search(position, deadline, 1);
+
+        for (int i = 1; i < engines.length; i++)
+            engines[i].stop();
+        int best = 0;
+        nodes = engines[0].getNodes();
+        for (int i = 1; i < engines.length; i++) {
+            try {
+                running[i].get();
+            } catch (Exception e) {
+                throw new IllegalStateException("Search helper failed", e);
+            }
+            nodes += engines[i].getNodes();
+            if (results[i] != SearchEngine.NO_MOVE && engines[i].getCompletedDepth() > engines[best].getCompletedDepth())
+                best = i;
+        }
+        elapsedNanos = System.nanoTime() - start;
+        completedDepth = engines[best].getCompletedDepth();
+        bestScore = engines[best].getBestScore();
+        return results[best];
+    }
+
+    /**
+     * Asks a search running on another thread to stop; it returns the best move it has so far.
+     * A search that has not started its engines yet is not affected.
+     */
+    public void stop() {
+        for (SearchEngine engine : engines)
+            engine.stop();
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        for (SearchEngine engine : engines)
+            engine.setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Lets every engine look up positions with few pieces, see {@link SearchEngine#setEndgameDatabase}.
+     */
+    public void setEndgameDatabase(EndgameDatabase endgames) {
+        for (SearchEngine engine : engines)
+            engine.setEndgameDatabase(endgames);
+    }
+
+    /**
+     * Gives every engine the same evaluation weights.
+     */
+    public void setEvaluator(Evaluator evaluator) {
+        for (SearchEngine engine : engines)
+            engine.setEvaluator(evaluator);
+    }
+
+    public int getThreads() {
+        return engines.length;
+    }
+
+    /**
+     * @return nodes searched by all threads in the last search
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : nodes * 1000000000L / elapsedNanos;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000L;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public void shutdown() {
+        if (helpers != null)
+            helpers.shutdownNow();
+    }
+
+    /**
+     * Compares one thread against several by the time each takes to finish a fixed depth.
+     * Usage: ParallelSearch [threads] [depth]
+     */
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        BoardHandler position = new BoardHandler();
+        position.newGame();
+
+        //the first run only warms up the JIT
+        long[] millis = new long[3];
+        int[] counts = {1, 1, threads};
+        for (int run = 0; run < 3; run++) {
+            ParallelSearch search = new ParallelSearch(counts[run], 64);
+            search.setMaxDepth(depth);
+            long move = search.findBestMove(position, Long.MAX_VALUE / 2000000L);
+            millis[run] = Math.max(1, search.getElapsedMillis());
+            search.shutdown();
+            if (run == 0)
+                continue;
+            System.out.println(counts[run] + " thread(s): depth " + search.getCompletedDepth() + " in "
+                    + millis[run] + " ms, " + search.getNodes() + " nodes, " + search.getNodesPerSecond() + " nodes/s, "
+                    + search.getTable() + ", best " + BoardHandler.moveToString(move));
+        }
+        System.out.printf("Speedup with %d threads: %.2fx%n", threads, (double) millis[1] / millis[2]);
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts GameRecords to and from Portable Draughts Notation text, for trading games with other programs.
+ *
+ * Moves use the standard 1 - 32 square numbers, "11-15" for a step and "9x18x27" for a jump with every
+ * square the piece lands on. A FEN tag is written when the game does not start from the usual position.
+ * On import, tags other than FEN and Result are ignored, as are comments in braces and variations in
+ * parentheses; a jump may be given by its first and last squares only as long as that is not ambiguous.
+ */
+public final class Pdn {
+    private Pdn() {
+    }
+
+    /**
+     * @return the game as PDN text ending with a newline
+     */
+    public static String write(GameRecord record) {
+        BoardHandler board = new BoardHandler();
+        BoardHandler initial = new BoardHandler();
+        initial.newGame();
+        record.startPosition(board);
+
+        StringBuilder pdn = new StringBuilder();
+        String result = resultToken(record.getResult());
+        pdn.append("[Result \"").append(result).append("\"]\n");
+        if (board.getHash() != initial.getHash() || board.getForceSquare() >= 0)
+            pdn.append("[FEN \"").append(board.getFen()).append("\"]\n");
+        pdn.append('\n');
+
+        long[] buffer = new long[BoardHandler.MAX_MOVES];
+        int number = 1;
+        int lineStart = pdn.length();
+        for (int i = 0; i < record.getMoveCount(); i++) {
+            long move = GameRecord.decodeMove(board, record.getCode(i), buffer);
+            if (move == SearchEngine.NO_MOVE)
+                throw new IllegalArgumentException("Illegal move " + (i + 1) + " in game record");
+            if (pdn.length() - lineStart > 72) {
+                pdn.append('\n');
+                lineStart = pdn.length();
+            } else if (pdn.length() > lineStart) {
+                pdn.append(' ');
+            }
+            if (board.isBlackTurn())
+                pdn.append(number).append(". ");
+            else if (i == 0)
+                pdn.append(number).append("... ");
+            appendMove(pdn, board, move);
+            if (!board.isBlackTurn())
+                number++;
+            board.playMove(move);
+            board.discardUndo();
+        }
+        if (pdn.length() > lineStart)
+            pdn.append(' ');
+        return pdn.append(result).append('\n').toString();
+    }
+
+    /**
+     * Reads the first game in the text.
+     *
+     * @throws IllegalArgumentException if there is no game or it holds an illegal move
+     */
+    public static GameRecord read(String text) {
+        List<GameRecord> games = readAll(text);
+        if (games.isEmpty())
+            throw new IllegalArgumentException("No game in PDN text");
+        return games.get(0);
+    }
+
+    /**
+     * Reads every game in the text. A game ends at its result token or where the tags of the next one begin.
+     *
+     * @throws IllegalArgumentException if a game holds an illegal move or a bad FEN
+     */
+    public static List<GameRecord> readAll(String text) {
+        List<GameRecord> games = new ArrayList<>();
+        BoardHandler board = new BoardHandler();
+        long[] buffer = new long[BoardHandler.MAX_MOVES];
+        GameRecord game = null;
+        boolean inMoves = false;
+        int result = GameRecord.UNKNOWN;
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '[') {
+                int close = text.indexOf(']', i);
+                if (close < 0)
+                    throw new IllegalArgumentException("Unterminated tag at offset " + i);
+                if (game != null && inMoves) {
+                    finish(games, game, result);
+                    game = null;
+                }
+                if (game == null) {
+                    game = new GameRecord();
+                    board.newGame();
+                    game.reset(board);
+                    inMoves = false;
+                    result = GameRecord.UNKNOWN;
+                }
+                String tag = text.substring(i + 1, close).trim();
+                int space = tag.indexOf(' ');
+                String name = space < 0 ? tag : tag.substring(0, space);
+                String value = space < 0 ? "" : tag.substring(space + 1).trim().replaceAll("^\"|\"$", "");
+                if (name.equalsIgnoreCase("FEN")) {
+                    board.setFen(value);
+                    game.reset(board);
+                } else if (name.equalsIgnoreCase("Result")) {
+                    result = parseResult(value);
+                }
+                i = close + 1;
+            } else if (c == '{' || c == '(') {
+                i = skipGroup(text, i);
+            } else {
+                int end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && "[{(".indexOf(text.charAt(end)) < 0)
+                    end++;
+                String token = text.substring(i, end);
+                i = end;
+                if (game == null) {
+                    game = new GameRecord();
+                    board.newGame();
+                    game.reset(board);
+                    result = GameRecord.UNKNOWN;
+                }
+                inMoves = true;
+                if (isResult(token)) {
+                    finish(games, game, token.equals("*") ? result : parseResult(token));
+                    game = null;
+                    inMoves = false;
+                    continue;
+                }
+                int dot = token.lastIndexOf('.');
+                if (dot >= 0)
+                    token = token.substring(dot + 1);
+                if (token.isEmpty())
+                    continue;
+                long move = findMove(board, token, buffer);
+                game.addMove(board, move);
+                board.playMove(move);
+                board.discardUndo();
+            }
+        }
+        if (game != null && inMoves)
+            finish(games, game, result);
+        return games;
+    }
+
+    private static void finish(List<GameRecord> games, GameRecord game, int result) {
+        game.setResult(result);
+        games.add(game);
+    }
+
+    /**
+     * Finds the legal move written as "a-b", "axb" or "axbxc...".
+     */
+    private static long findMove(BoardHandler board, String token, long[] buffer) {
+        String[] parts = token.split("[-x:]");
+        int[] path = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                path[i] = Integer.parseInt(parts[i]) - 1;
+                if (path[i] < 0 || path[i] > 31)
+                    throw new IllegalArgumentException("Square out of range in move " + token);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot read move " + token, e);
+        }
+        if (path.length < 2)
+            throw new IllegalArgumentException("Cannot read move " + token);
+
+        int start = path[0];
+        int end = path[path.length - 1];
+        int captured = 0;
+        for (int i = 0; path.length > 2 && i + 1 < path.length; i++)
+            captured |= jumpedSquare(path[i], path[i + 1], token);
+
+        long found = SearchEngine.NO_MOVE;
+        int count = board.generateMoves(buffer);
+        for (int i = 0; i < count; i++) {
+            long move = buffer[i];
+            if (BoardHandler.moveStart(move) != start || BoardHandler.moveEnd(move) != end)
+                continue;
+            if (captured != 0 && BoardHandler.moveCaptures(move) != captured)
+                continue;
+            if (found != SearchEngine.NO_MOVE)
+                throw new IllegalArgumentException("Ambiguous move " + token + ", give every square jumped to");
+            found = move;
+        }
+        if (found == SearchEngine.NO_MOVE)
+            throw new IllegalArgumentException("Illegal move " + token);
+        return found;
+    }
+
+    /**
+     * @return the bit of the square between two squares a jump apart
+     */
+    private static int jumpedSquare(int from, int to, String token) {
+        for (int d = 0; d < 4; d++) {
+            if (BoardHandler.JUMP[from * 4 + d] == to)
+                return BoardHandler.NEIGHBOR_BIT[from * 4 + d];
+        }
+        throw new IllegalArgumentException("Squares are not a jump apart in move " + token);
+    }
+
+    /**
+     * Writes the move with every square its piece lands on, recovering the jump path from the captures.
+     */
+    private static void appendMove(StringBuilder pdn, BoardHandler board, long move) {
+        int start = BoardHandler.moveStart(move);
+        int captured = BoardHandler.moveCaptures(move);
+        if (captured == 0) {
+            pdn.append(start + 1).append('-').append(BoardHandler.moveEnd(move) + 1);
+            return;
+        }
+        int[] path = new int[Integer.bitCount(captured) + 1];
+        path[0] = start;
+        int empty = ~(board.getBlacks() | board.getWhites()) | 1 << start;
+        if (!findPath(path, 1, start, BoardHandler.moveEnd(move), captured, empty))
+            throw new IllegalStateException("No jump path for " + BoardHandler.moveToString(move));
+        for (int i = 0; i < path.length; i++) {
+            if (i > 0)
+                pdn.append('x');
+            pdn.append(path[i] + 1);
+        }
+    }
+
+    private static boolean findPath(int[] path, int length, int sq, int end, int captured, int empty) {
+        if (captured == 0)
+            return sq == end;
+        for (int d = 0; d < 4; d++) {
+            int over = BoardHandler.NEIGHBOR_BIT[sq * 4 + d] & captured;
+            if (over == 0 || (BoardHandler.JUMP_BIT[sq * 4 + d] & empty) == 0)
+                continue;
+            path[length] = BoardHandler.JUMP[sq * 4 + d];
+            if (findPath(path, length + 1, path[length], end, captured & ~over, empty))
+                return true;
+        }
+        return false;
+    }
+
+    private static int skipGroup(String text, int i) {
+        char open = text.charAt(i);
+        char close = open == '{' ? '}' : ')';
+        int depth = 0;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == open) {
+                depth++;
+            } else if (c == close && --depth == 0) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated " + open + " in PDN text");
+    }
+
+    private static boolean isResult(String token) {
+        return token.equals("*") || token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2")
+                || token.equals("2-0") || token.equals("0-2") || token.equals("1-1");
+    }
+
+    private static int parseResult(String value) {
+        switch (value) {
+            case "1-0":
+            case "2-0":
+                return GameRecord.BLACK_WINS;
+            case "0-1":
+            case "0-2":
+                return GameRecord.WHITE_WINS;
+            case "1/2-1/2":
+            case "1-1":
+                return GameRecord.DRAW;
+            default:
+                return GameRecord.UNKNOWN;
+        }
+    }
+
+    private static String resultToken(int result) {
+        switch (result) {
+            case GameRecord.BLACK_WINS:
+                return "1-0";
+            case GameRecord.WHITE_WINS:
+                return "0-1";
+            case GameRecord.DRAW:
+                return "1/2-1/2";
+            default:
+                return "*";
+        }
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the leaf nodes of the game tree to a fixed depth, to check the move generator against published
+ * numbers and to measure how fast it is.
+ *
+ * With bulk counting the last ply is not played: the number of generated moves is the number of leaves.
+ * A divide report lists the count below each root move, which narrows a wrong total down to one line.
+ * Root moves can be split across threads, each with its own board. The same tree can also be walked by
+ * trying every start and end square with makeMove, which checks that makeMove agrees with the generator.
+ * Other rule variants are counted on a VariantBoard on one thread.
+ *
+ * Usage: Perft [depth] [--fen "B:W21-32:B1-12"] [--divide] [--threads n] [--no-bulk] [--verify] [--makemove]
+ *              [--variant english|brazilian|international]
+ */
+public class Perft {
+    //Published leaf counts from the starting position, depth 1 first
+    final static long[] START_COUNTS = {7, 49, 302, 1469, 7361, 36768, 179740, 845931, 3963680, 18391564,
+            85242128, 388623673};
+    //the same for international draughts
+    final static long[] INTERNATIONAL_COUNTS = {9, 81, 658, 4265, 27117, 167140, 1049442, 6483961, 41022423};
+
+    private final long[][] buffers = new long[SearchEngine.MAX_PLY][BoardHandler.MAX_MOVES];
+    private final boolean bulk;
+
+    public Perft(boolean bulk) {
+        this.bulk = bulk;
+    }
+
+    /**
+     * @param board position to count from; played moves are taken back, so it is left unchanged
+     * @return number of leaf nodes at the given depth
+     */
+    public long count(BoardHandler board, int depth) {
+        if (depth <= 0)
+            return 1;
+        long[] moves = buffers[depth];
+        int count = board.generateMoves(moves);
+        if (bulk && depth == 1)
+            return count;
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            board.playMove(moves[i]);
+            nodes += count(board, depth - 1);
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts leaves on a board of any variant, bulk counting the last ply.
+     *
+     * @param buffers one move buffer of VariantBoard.MAX_MOVES entries per remaining ply
+     */
+    static long count(VariantBoard board, int depth, long[][] buffers) {
+        if (depth <= 0)
+            return 1;
+        long[] moves = buffers[depth];
+        int count = board.generateMoves(moves);
+        if (depth == 1)
+            return count;
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            board.playMove(moves[i]);
+            nodes += count(board, depth - 1, buffers);
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts leaves by trying every start and end square with makeMove, following multi-jumps step by step.
+     * Much slower than {@link #count(BoardHandler, int)}, but it only relies on makeMove's own rules.
+     */
+    static long countWithMakeMove(BoardHandler board, int depth) {
+        if (depth == 0)
+            return 1;
+        long nodes = 0;
+        int own = board.isBlackTurn() ? board.getBlacks() : board.getWhites();
+        for (; own != 0; own &= own - 1) {
+            int start = Integer.numberOfTrailingZeros(own);
+            for (int end = 0; end < 32; end++) {
+                int status = BoardHandler.statusOf(board.move(board.pieceAt(start), BoardHandler.rowOf(start),
+                        BoardHandler.colOf(start), BoardHandler.rowOf(end), BoardHandler.colOf(end)));
+                if (status == BoardHandler.normal)
+                    nodes += countWithMakeMove(board, depth - 1);
+                else if (status == BoardHandler.goAgain)
+                    nodes += countWithMakeMove(board, depth);//the same player keeps jumping
+                else
+                    continue;
+                board.unmakeMove();
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaves below every root move, splitting the root moves over a thread pool.
+     *
+     * @return leaf count per root move, in the order of {@code rootMoves}
+     */
+    static long[] divide(BoardHandler board, int depth, long[] rootMoves, int rootCount, int threads, boolean bulk) {
+        long[] counts = new long[rootCount];
+        if (depth <= 0)
+            return counts;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < rootCount; i++) {
+                long move = rootMoves[i];
+                results.add(pool.submit(() -> {
+                    BoardHandler child = new BoardHandler();
+                    child.copyFrom(board);
+                    child.playMove(move);
+                    return new Perft(bulk).count(child, depth - 1);
+                }));
+            }
+            for (int i = 0; i < rootCount; i++)
+                counts[i] = results.get(i).get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Perft worker failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    public static void main(String[] args) {
+        int depth = 8;
+        String fen = null;
+        boolean showDivide = false;
+        boolean bulk = true;
+        boolean verify = false;
+        boolean checkMakeMove = false;
+        Variant variant = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fen":
+                    fen = args[++i];
+                    break;
+                case "--divide":
+                    showDivide = true;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--no-bulk":
+                    bulk = false;
+                    break;
+                case "--verify":
+                    verify = true;
+                    break;
+                case "--makemove":
+                    checkMakeMove = true;
+                    break;
+                case "--variant":
+                    variant = Variant.byName(args[++i]);
+                    break;
+                default:
+                    depth = Integer.parseInt(args[i]);
+            }
+        }
+
+        if (variant != null) {
+            if (!countVariant(variant, fen, depth, verify))
+                System.exit(1);
+            return;
+        }
+
+        BoardHandler board = new BoardHandler();
+        if (fen == null)
+            board.newGame();
+        else
+            board.setFen(fen);
+        System.out.println("Position " + board.getFen());
+
+        int first = verify ? 1 : depth;
+        boolean correct = true;
+        for (int d = first; d <= depth; d++) {
+            long[] rootMoves = new long[BoardHandler.MAX_MOVES];
+            int rootCount = board.generateMoves(rootMoves);
+            long start = System.nanoTime();
+            long[] counts = divide(board, d, rootMoves, rootCount, threads, bulk);
+            long nanos = System.nanoTime() - start;
+
+            long total = d == 0 ? 1 : 0;
+            for (int i = 0; i < rootCount; i++) {
+                total += counts[i];
+                if (showDivide && d == depth)
+                    System.out.println("  " + BoardHandler.moveToString(rootMoves[i]) + ": " + counts[i]);
+            }
+            String check = "";
+            if (verify && fen == null && d <= START_COUNTS.length) {
+                boolean match = total == START_COUNTS[d - 1];
+                correct &= match;
+                check = match ? "  ok" : "  expected " + START_COUNTS[d - 1];
+            }
+            if (checkMakeMove) {
+                long stepped = countWithMakeMove(board, d);
+                correct &= stepped == total;
+                check += stepped == total ? "  makeMove agrees" : "  makeMove counts " + stepped;
+            }
+            System.out.printf("perft(%d) = %d in %.3f s, %.0f nodes/s%s%n", d, total, nanos / 1e9,
+                    total * 1e9 / Math.max(1, nanos), check);
+        }
+        if (!correct)
+            System.exit(1);
+    }
+
+    /**
+     * @return false if a count checked against the published numbers was wrong
+     */
+    private static boolean countVariant(Variant variant, String fen, int depth, boolean verify) {
+        VariantBoard board = new VariantBoard(variant);
+        if (fen != null)
+            board.setFen(fen);
+        System.out.println("Position " + board.getFen() + ", " + variant);
+        long[] expected = variant == Variant.INTERNATIONAL ? INTERNATIONAL_COUNTS : variant.isFastPath() ? START_COUNTS : null;
+        long[][] buffers = new long[depth + 1][VariantBoard.MAX_MOVES];
+        boolean correct = true;
+        for (int d = verify ? 1 : depth; d <= depth; d++) {
+            long start = System.nanoTime();
+            long total = count(board, d, buffers);
+            long nanos = System.nanoTime() - start;
+            String check = "";
+            if (verify && fen == null && expected != null && d <= expected.length) {
+                boolean match = total == expected[d - 1];
+                correct &= match;
+                check = match ? "  ok" : "  expected " + expected[d - 1];
+            }
+            System.out.printf("perft(%d) = %d in %.3f s, %.0f nodes/s%s%n", d, total, nanos / 1e9,
+                    total * 1e9 / Math.max(1, nanos), check);
+        }
+        return correct;
+    }
+}
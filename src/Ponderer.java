@@ -0,0 +1,111 @@
+/**
+ * Lets the computer think on the player's time in Checkers.
+ *
+ * After the computer moves, the reply it expects is read from the transposition table and the position after
+ * that reply is searched on a background thread while the player thinks. If the player makes that reply, the
+ * search keeps running for the normal move time and its move is played; otherwise it is stopped and the
+ * computer starts a fresh search, which still finds the table warm from pondering.
+ */
+public class Ponderer {
+    private final static long PONDER_LIMIT_MS = 24 * 3600 * 1000L;//until stopped
+
+    private final ParallelSearch engine;
+    private final BoardHandler position = new BoardHandler();
+    private final long[] moves = new long[BoardHandler.MAX_MOVES];
+    private Thread thread;
+    private volatile long result;
+    private int hits;
+    private int misses;
+
+    Ponderer(ParallelSearch engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Starts pondering on the player's turn. The board may change while pondering runs.
+     *
+     * @param board position with the player to move
+     * @return the reply being pondered, or SearchEngine.NO_MOVE if the table did not predict one
+     */
+    long start(BoardHandler board) {
+        stop();
+        long predicted = predict(board);
+        if (predicted == SearchEngine.NO_MOVE)
+            return SearchEngine.NO_MOVE;
+        position.copyFrom(board);
+        position.playMove(predicted);
+        position.discardUndo();
+        result = SearchEngine.NO_MOVE;
+        thread = new Thread(() -> result = engine.findBestMove(position, PONDER_LIMIT_MS), "ponder");
+        thread.setDaemon(true);
+        thread.start();
+        return predicted;
+    }
+
+    /**
+     * Ends pondering once the player has moved.
+     *
+     * @param board       position with the computer to move
+     * @param timeLimitMs how much longer a search of the right position may run
+     * @return the pondered search's move if the player made the predicted reply, otherwise SearchEngine.NO_MOVE
+     */
+    long finish(BoardHandler board, long timeLimitMs) {
+        if (thread == null)
+            return SearchEngine.NO_MOVE;
+        if (board.getHash() != position.getHash()) {
+            misses++;
+            stop();
+            return SearchEngine.NO_MOVE;
+        }
+        hits++;
+        try {
+            thread.join(timeLimitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stop();
+        return result;
+    }
+
+    /**
+     * Stops pondering and waits for the search to return. Does nothing if it is not running.
+     */
+    void stop() {
+        if (thread == null)
+            return;
+        //the search clears stop requests as it starts, so keep asking until the thread is gone
+        while (thread.isAlive()) {
+            engine.stop();
+            try {
+                thread.join(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        thread = null;
+    }
+
+    /**
+     * @return the move stored in the table for the position, if it is legal there
+     */
+    private long predict(BoardHandler board) {
+        long entry = engine.getTable().probe(board.getHash());
+        if (entry == 0)
+            return SearchEngine.NO_MOVE;
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (TranspositionTable.isMove(entry, moves[i]))
+                return moves[i];
+        }
+        return SearchEngine.NO_MOVE;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,86 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Packs a BoardHandler position into a fixed 13 bytes and back.
+ *
+ * Layout, big-endian: black squares (4 bytes), white squares (4), king squares (4), then a flag byte
+ * holding the side to move in bit 7 (1 for black), whether a multi-jump is being forced in bit 6 and the
+ * square of the jumping piece in bits 0 - 4.
+ */
+public final class PositionCodec {
+    final static int POSITION_BYTES = 13;
+
+    private final static int BLACK_TO_MOVE = 0x80;
+    private final static int JUMP_FORCED = 0x40;
+
+    private PositionCodec() {
+    }
+
+    /**
+     * Writes the position at the buffer's position and advances it by POSITION_BYTES.
+     */
+    static void encode(BoardHandler board, ByteBuffer out) {
+        out.putInt(board.getBlacks());
+        out.putInt(board.getWhites());
+        out.putInt(board.getKings());
+        out.put(flags(board));
+    }
+
+    /**
+     * Writes the position into the array at the offset.
+     */
+    static void encode(BoardHandler board, byte[] out, int offset) {
+        putInt(out, offset, board.getBlacks());
+        putInt(out, offset + 4, board.getWhites());
+        putInt(out, offset + 8, board.getKings());
+        out[offset + 12] = flags(board);
+    }
+
+    /**
+     * Reads a position at the buffer's position into the board and advances the buffer.
+     *
+     * @throws IllegalArgumentException if the bytes do not describe a position
+     */
+    static void decode(ByteBuffer in, BoardHandler board) {
+        int blacks = in.getInt();
+        int whites = in.getInt();
+        int kings = in.getInt();
+        setPosition(board, blacks, whites, kings, in.get());
+    }
+
+    static void decode(byte[] in, int offset, BoardHandler board) {
+        setPosition(board, getInt(in, offset), getInt(in, offset + 4), getInt(in, offset + 8), in[offset + 12]);
+    }
+
+    private static void setPosition(BoardHandler board, int blacks, int whites, int kings, byte flags) {
+        if ((blacks & whites) != 0 || (kings & ~(blacks | whites)) != 0)
+            throw new IllegalArgumentException("Overlapping or empty squares in encoded position");
+        if ((blacks & ~kings & BoardHandler.BLACK_KING_ROW) != 0 || (whites & ~kings & BoardHandler.WHITE_KING_ROW) != 0)
+            throw new IllegalArgumentException("Uncrowned man on its king row in encoded position");
+        boolean blackToMove = (flags & BLACK_TO_MOVE) != 0;
+        int forceSquare = (flags & JUMP_FORCED) != 0 ? flags & 31 : -1;
+        if (forceSquare >= 0 && ((blackToMove ? blacks : whites) & 1 << forceSquare) == 0)
+            throw new IllegalArgumentException("Forced jumper's square holds no piece of the side to move");
+        if (forceSquare >= 0 && (BoardHandler.jumpers(blacks, whites, kings, blackToMove) & 1 << forceSquare) == 0)
+            throw new IllegalArgumentException("Forced jumper has no jump in encoded position");
+        board.setPosition(blacks, whites, kings, blackToMove, forceSquare);
+    }
+
+    private static byte flags(BoardHandler board) {
+        int flags = board.isBlackTurn() ? BLACK_TO_MOVE : 0;
+        if (board.getForceSquare() >= 0)
+            flags |= JUMP_FORCED | board.getForceSquare();
+        return (byte) flags;
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] in, int offset) {
+        return (in[offset] & 0xFF) << 24 | (in[offset + 1] & 0xFF) << 16 | (in[offset + 2] & 0xFF) << 8 | in[offset + 3] & 0xFF;
+    }
+}
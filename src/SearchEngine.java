@@ -0,0 +1,320 @@
+/**
+ * A computer player for BoardHandler games.
+ *
+ * Runs a negamax alpha-beta search with iterative deepening until a wall-clock deadline passes and then
+ * returns the best move of the deepest finished iteration. Moves are ordered with the biggest captures
+ * first, then the killer moves of the ply, then by history score. Results are kept in a transposition
+ * table so positions reached through different move orders are only searched once.
+ */
+public class SearchEngine {
+    final static long NO_MOVE = -1;
+
+    final static int MAX_PLY = 64;
+    final static int WIN = 100000;//score for a side that has won, less the plies it takes
+    final static int KNOWN_WIN = 50000;//score for a win the endgame database knows of, less the plies to reach it
+    private final static int DEFAULT_TABLE_MB = 16;
+    private final static int TIME_CHECK_INTERVAL = 255;//nodes between clock reads, minus one
+
+    //The search plays and takes back moves on its own board, with one move list and score list per ply
+    private final BoardHandler board = new BoardHandler();
+    private final long[][] moves = new long[MAX_PLY][BoardHandler.MAX_MOVES];
+    private final int[][] orderScores = new int[MAX_PLY][BoardHandler.MAX_MOVES];
+
+    private final long[][] killers = new long[MAX_PLY][2];
+    private final int[][] history = new int[32][32];
+    private final TranspositionTable table;
+    private EndgameDatabase endgames;
+    private Evaluator evaluator = Evaluator.DEFAULT;
+
+    private int maxDepth = MAX_PLY;
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean stopRequested;
+    private long nodes;
+    private long tableProbes;
+    private long tableHits;
+    private long endgameHits;
+    private int completedDepth;
+    private int bestScore;
+
+    public SearchEngine() {
+        this(new TranspositionTable(DEFAULT_TABLE_MB));
+    }
+
+    public SearchEngine(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Searches the position until the time runs out or the depth limit is reached.
+     *
+     * @param position    position to search, left unchanged
+     * @param timeLimitMs wall-clock budget in milliseconds
+     * @return the best move found, or NO_MOVE if the side to move has no legal moves
+     */
+    public long findBestMove(BoardHandler position, long timeLimitMs) {
+        stopRequested = false;
+        table.newSearch();
+        return search(position, System.nanoTime() + timeLimitMs * 1000000L, 1);
+    }
+
+    /**
+     * Runs the search without resetting the stop request or starting a new table generation, so that
+     * several engines can search one position together.
+     *
+     * @param deadline   System.nanoTime() value at which to stop
+     * @param firstDepth depth of the first iteration
+     */
+    long search(BoardHandler position, long deadline, int firstDepth) {
+        this.deadline = deadline;
+        aborted = false;
+        nodes = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        endgameHits = 0;
+        completedDepth = 0;
+        bestScore = 0;
+        for (long[] pair : killers) {
+            pair[0] = NO_MOVE;
+            pair[1] = NO_MOVE;
+        }
+        for (int[] row : history)
+            java.util.Arrays.fill(row, 0);
+
+        board.copyFrom(position);
+        long[] rootMoves = moves[0];
+        int count = board.generateMoves(rootMoves);
+        if (count == 0)
+            return NO_MOVE;
+        long bestMove = rootMoves[0];
+        if (count == 1)
+            return bestMove;
+
+        for (int depth = Math.min(firstDepth, maxDepth); depth <= maxDepth; depth++) {
+            int alpha = -WIN - 1;
+            long iterationBest = NO_MOVE;
+            for (int i = 0; i < count; i++) {
+                board.playMove(rootMoves[i]);
+                int score = -negamax(depth - 1, 1, -WIN - 1, -alpha);
+                board.unmakeMove();
+                if (aborted)
+                    break;
+                if (score > alpha) {
+                    alpha = score;
+                    iterationBest = rootMoves[i];
+                }
+            }
+            //the previous best is searched first, so anything that beat it is safe to keep even if time ran out
+            if (iterationBest != NO_MOVE) {
+                bestMove = iterationBest;
+                bestScore = alpha;
+            }
+            if (aborted)
+                break;
+            completedDepth = depth;
+            moveToFront(rootMoves, count, bestMove);
+            if (alpha >= KNOWN_WIN - MAX_PLY || alpha <= -KNOWN_WIN + MAX_PLY)
+                break;//forced win or loss found
+        }
+        table.recordProbes(tableProbes, tableHits);
+        return bestMove;
+    }
+
+    /**
+     * Asks a running search to stop as soon as it next checks the clock. Safe to call from any thread.
+     */
+    void stop() {
+        stopRequested = true;
+    }
+
+    void clearStop() {
+        stopRequested = false;
+    }
+
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        if ((++nodes & TIME_CHECK_INTERVAL) == 0 && (stopRequested || System.nanoTime() > deadline))
+            aborted = true;
+        if (aborted)
+            return 0;
+
+        if (endgames != null && board.getNumBlacks() + board.getNumWhites() <= endgames.getMaxPieces()) {
+            int result = endgames.probe(board);
+            if (result != EndgameDatabase.UNKNOWN) {
+                endgameHits++;
+                return result == EndgameDatabase.WIN ? KNOWN_WIN - ply : result == EndgameDatabase.LOSS ? -KNOWN_WIN + ply : 0;
+            }
+        }
+
+        long hash = board.getHash();
+        long entry = table.probe(hash);
+        tableProbes++;
+        if (entry != 0)
+            tableHits++;
+        if (entry != 0 && TranspositionTable.depthOf(entry) >= depth) {
+            int score = fromTable(TranspositionTable.scoreOf(entry), ply);
+            int bound = TranspositionTable.boundOf(entry);
+            if (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha))
+                return score;
+        }
+
+        long[] list = moves[ply];
+        int count = board.generateMoves(list);
+        if (count == 0)
+            return -WIN + ply;
+        //keep searching through captures so the evaluation never sees a half-finished exchange
+        boolean capture = BoardHandler.moveCaptures(list[0]) != 0;
+        if ((depth <= 0 && !capture) || ply >= MAX_PLY - 1)
+            return evaluator.evaluate(board);
+
+        scoreMoves(list, count, ply, entry);
+        int originalAlpha = alpha;
+        long bestMove = NO_MOVE;
+        for (int i = 0; i < count; i++) {
+            long move = pickNext(list, orderScores[ply], i, count);
+            board.playMove(move);
+            int score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            board.unmakeMove();
+            if (aborted)
+                return 0;
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+                if (alpha >= beta) {
+                    if (!capture) {
+                        if (killers[ply][0] != move) {
+                            killers[ply][1] = killers[ply][0];
+                            killers[ply][0] = move;
+                        }
+                        history[BoardHandler.moveStart(move)][BoardHandler.moveEnd(move)] += depth * depth;
+                    }
+                    break;
+                }
+            }
+        }
+        int bound = alpha >= beta ? TranspositionTable.LOWER
+                : alpha > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(hash, bestMove, Math.max(depth, 0), bound, toTable(alpha, ply));
+        return alpha;
+    }
+
+    /**
+     * Win scores, database wins included, count plies from the root; the table stores them counted from
+     * the position instead.
+     */
+    private static int toTable(int score, int ply) {
+        if (score >= KNOWN_WIN - MAX_PLY)
+            return score + ply;
+        if (score <= -KNOWN_WIN + MAX_PLY)
+            return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= KNOWN_WIN - MAX_PLY)
+            return score - ply;
+        if (score <= -KNOWN_WIN + MAX_PLY)
+            return score + ply;
+        return score;
+    }
+
+    private void scoreMoves(long[] list, int count, int ply, long entry) {
+        int[] scores = orderScores[ply];
+        for (int i = 0; i < count; i++) {
+            long move = list[i];
+            int captures = BoardHandler.moveCaptures(move);
+            if (entry != 0 && TranspositionTable.isMove(entry, move))
+                scores[i] = Integer.MAX_VALUE;
+            else if (captures != 0)
+                scores[i] = Integer.MAX_VALUE - 32 + Integer.bitCount(captures);
+            else if (move == killers[ply][0])
+                scores[i] = Integer.MAX_VALUE - 64;
+            else if (move == killers[ply][1])
+                scores[i] = Integer.MAX_VALUE - 65;
+            else
+                scores[i] = history[BoardHandler.moveStart(move)][BoardHandler.moveEnd(move)];
+        }
+    }
+
+    /**
+     * Swaps the best remaining move into position i and returns it.
+     */
+    private static long pickNext(long[] list, int[] scores, int i, int count) {
+        int best = i;
+        for (int j = i + 1; j < count; j++) {
+            if (scores[j] > scores[best])
+                best = j;
+        }
+        long move = list[best];
+        list[best] = list[i];
+        list[i] = move;
+        int score = scores[best];
+        scores[best] = scores[i];
+        scores[i] = score;
+        return move;
+    }
+
+    private static void moveToFront(long[] list, int count, long move) {
+        for (int i = 0; i < count; i++) {
+            if (list[i] == move) {
+                System.arraycopy(list, 0, list, 1, i);
+                list[0] = move;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Limits the depth of the search; the time limit still applies.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+    }
+
+    /**
+     * @return depth of the last fully searched iteration
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * @return score of the returned move from the point of view of the side that was to move
+     */
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    /**
+     * Replaces the default evaluation weights, for example with ones loaded by {@link Evaluator#load}.
+     */
+    public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+        board.setEvaluator(evaluator);
+    }
+
+    /**
+     * Lets the search look up positions with few pieces instead of searching them.
+     *
+     * @param endgames database to probe, or null to search every position
+     */
+    public void setEndgameDatabase(EndgameDatabase endgames) {
+        this.endgames = endgames;
+    }
+
+    /**
+     * @return positions of the last search resolved by the endgame database
+     */
+    public long getEndgameHits() {
+        return endgameHits;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the GameServer's live games in one file, so a restarted server picks them up where they were.
+ *
+ * The file is an append-only journal. Each snapshot appends the state of every game that changed since the
+ * last one and a removal for every game that is gone, moves the header's next game id on if it has to, then
+ * forces the file to disk. Once the journal is more than COMPACT_RATIO times the size of the games it
+ * describes, it is rewritten with one record per live game into a temporary file that replaces it in a
+ * single rename. On start the file is read into memory through its channel, not mapped, so that nothing
+ * holds it open when it is cut short or renamed over; a record cut short or failing its checksum, as a crash
+ * in the middle of a write leaves one, ends the journal there and is cut off.
+ *
+ * Layout, big-endian:
+ * <pre>
+ * int  MAGIC, VERSION
+ * long next game id, rewritten in place by snapshots
+ * then records of
+ * int  length of the payload
+ * int  CRC-32C of the payload
+ * byte PUT or REMOVE, long game id, then for PUT the state written by GameSession.save
+ * </pre>
+ */
+public class SessionJournal implements Closeable {
+    final static int MAGIC = 0x434B534A;//"CKSJ"
+    final static int VERSION = 1;
+    private final static int FILE_HEADER_BYTES = 16;
+    private final static int RECORD_HEADER_BYTES = 8;
+    private final static int MAX_PAYLOAD_BYTES = 1 + 8 + GameSession.MAX_STATE_BYTES;
+    private final static byte PUT = 1;
+    private final static byte REMOVE = 2;
+    private final static int COMPACT_RATIO = 4;
+    private final static long COMPACT_MIN_BYTES = 1 << 20;//smaller journals are never worth rewriting
+
+    private final Path file;
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private final CRC32C crc = new CRC32C();
+    private final long[] hashes = new long[BoardHandler.HISTORY_SIZE];
+
+    //bytes of the latest record of every game the journal holds
+    private final Map<Long, Integer> recordBytes = new HashMap<>();
+    private long liveBytes;
+    private long fileBytes;
+    private long nextId = 1;
+    private long headerNextId;//next id as the file's header has it
+    private final ByteBuffer idBuffer = ByteBuffer.allocate(8);
+    private long discardedBytes;
+
+    private SessionJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal, creating it if there is none, and puts every game it holds into the map.
+     *
+     * @throws IOException if the file cannot be read or written, or is not a journal of this version
+     */
+    static SessionJournal open(Path file, Map<Long, GameSession> sessions) throws IOException {
+        SessionJournal journal = new SessionJournal(file);
+        journal.load(sessions);
+        return journal;
+    }
+
+    private void load(Map<Long, GameSession> sessions) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < FILE_HEADER_BYTES) {
+            rewrite(sessions);
+            return;
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Journal too large to read: " + file);
+        ByteBuffer in = ByteBuffer.allocate((int) size);
+        while (in.hasRemaining()) {
+            if (channel.read(in, in.position()) < 0)
+                break;
+        }
+        in.flip();
+        size = in.limit();
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+            throw new IOException("Not a version " + VERSION + " session journal: " + file);
+        nextId = in.getLong();
+        headerNextId = nextId;
+
+        //first pass: where the latest record of each game is, so replaced states are never decoded
+        Map<Long, Integer> latest = new HashMap<>();
+        int end = FILE_HEADER_BYTES;
+        while (end + RECORD_HEADER_BYTES <= size) {
+            int length = in.getInt(end);
+            if (length < 9 || length > MAX_PAYLOAD_BYTES || end + RECORD_HEADER_BYTES + length > size)
+                break;
+            crc.reset();
+            crc.update(in.slice(end + RECORD_HEADER_BYTES, length));
+            if ((int) crc.getValue() != in.getInt(end + 4))
+                break;
+            int payload = end + RECORD_HEADER_BYTES;
+            long id = in.getLong(payload + 1);
+            nextId = Math.max(nextId, id + 1);
+            if (in.get(payload) == PUT)
+                latest.put(id, end);
+            else
+                latest.remove(id);
+            end = payload + length;
+        }
+
+        for (Map.Entry<Long, Integer> entry : latest.entrySet()) {
+            int offset = entry.getValue();
+            int length = in.getInt(offset);
+            ByteBuffer state = in.slice(offset + RECORD_HEADER_BYTES + 9, length - 9);
+            try {
+                sessions.put(entry.getKey(), GameSession.restore(entry.getKey(), state, hashes));
+            } catch (IllegalArgumentException | java.nio.BufferUnderflowException e) {
+                throw new IOException("Game " + entry.getKey() + " in " + file + " cannot be restored", e);
+            }
+            recordBytes.put(entry.getKey(), RECORD_HEADER_BYTES + length);
+            liveBytes += RECORD_HEADER_BYTES + length;
+        }
+
+        discardedBytes = size - end;
+        if (discardedBytes > 0)
+            channel.truncate(end);
+        fileBytes = end;
+        channel.position(end);
+        if (fileBytes > COMPACT_MIN_BYTES && fileBytes > COMPACT_RATIO * (FILE_HEADER_BYTES + liveBytes))
+            rewrite(sessions);
+    }
+
+    /**
+     * Appends every game that changed since the last snapshot and drops the ones that are gone, then forces
+     * the journal to disk. Compacts it if it has grown too large.
+     *
+     * @param nextId the id the next new game will get, kept across a compaction
+     * @return number of records written
+     */
+    synchronized int snapshot(Map<Long, GameSession> sessions, long nextId) throws IOException {
+        this.nextId = Math.max(this.nextId, nextId);
+        int records = 0;
+        for (Iterator<Long> ids = recordBytes.keySet().iterator(); ids.hasNext(); ) {
+            long id = ids.next();
+            if (sessions.containsKey(id))
+                continue;
+            liveBytes -= recordBytes.get(id);
+            ids.remove();
+            append(REMOVE, id, null);
+            records++;
+        }
+        for (GameSession session : sessions.values()) {
+            if (session.isSaved() && recordBytes.containsKey(session.getId()))
+                continue;
+            append(PUT, session.getId(), session);
+            records++;
+        }
+        flush();
+        if (this.nextId > headerNextId) {
+            //a game may have come and gone between snapshots without a record to carry its id
+            idBuffer.clear();
+            idBuffer.putLong(0, this.nextId);
+            channel.write(idBuffer, 8);
+            headerNextId = this.nextId;
+        }
+        channel.force(false);
+        if (fileBytes > COMPACT_MIN_BYTES && fileBytes > COMPACT_RATIO * (FILE_HEADER_BYTES + liveBytes))
+            rewrite(sessions);
+        return records;
+    }
+
+    private void append(byte type, long id, GameSession session) throws IOException {
+        if (buffer.remaining() < RECORD_HEADER_BYTES + MAX_PAYLOAD_BYTES)
+            flush();
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER_BYTES);
+        buffer.put(type).putLong(id);
+        if (session != null)
+            session.save(buffer, hashes);
+        int length = buffer.position() - start - RECORD_HEADER_BYTES;
+        crc.reset();
+        crc.update(buffer.slice(start + RECORD_HEADER_BYTES, length));
+        buffer.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+        fileBytes += RECORD_HEADER_BYTES + length;
+        if (session != null) {
+            Integer previous = recordBytes.put(id, RECORD_HEADER_BYTES + length);
+            liveBytes += RECORD_HEADER_BYTES + length - (previous == null ? 0 : previous);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes every game into a new file, one record each, and puts it in place of the journal.
+     */
+    private void rewrite(Map<Long, GameSession> sessions) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        channel.close();
+        channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        recordBytes.clear();
+        liveBytes = 0;
+        fileBytes = FILE_HEADER_BYTES;
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(nextId);
+        headerNextId = nextId;
+        for (GameSession session : sessions.values())
+            append(PUT, session.getId(), session);
+        flush();
+        channel.force(false);
+        channel.close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(fileBytes);
+    }
+
+    /**
+     * Rewrites the journal now with one record per game.
+     */
+    synchronized void compact(Map<Long, GameSession> sessions, long nextId) throws IOException {
+        this.nextId = Math.max(this.nextId, nextId);
+        rewrite(sessions);
+    }
+
+    /**
+     * @return the id the next new game should get, past every game the journal has seen
+     */
+    long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * @return bytes cut off the end of the journal when it was opened, 0 unless the last write was torn
+     */
+    long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    synchronized long getFileBytes() {
+        return fileBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
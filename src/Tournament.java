@@ -0,0 +1,403 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays many engine-against-engine games without a console, on every core, and rates the two players.
+ *
+ * Each opening is played twice with the players swapping colors. A worker thread keeps its own pair of
+ * SearchEngines and board for all the games it plays. A game is drawn once DRAW_PLIES plies pass without a
+ * capture or a man moving, when a position comes up for the third time or when it reaches the ply limit, and
+ * may be ended early by an endgame database.
+ * Finished games are appended to a game-record file as they come in, so a long run can be stopped at any
+ * time without losing what it has played.
+ */
+public class Tournament {
+    final static int DEFAULT_DRAW_PLIES = BoardHandler.DEFAULT_DRAW_PLIES;
+    final static int DEFAULT_MAX_PLIES = 400;
+
+    /**
+     * How one side plays: a depth limit, a time limit per move or both.
+     */
+    static class Player {
+        final String name;
+        int depth = SearchEngine.MAX_PLY;
+        long timeMs = 3600000;
+        int tableMb = 4;
+        Evaluator evaluator = Evaluator.DEFAULT;
+
+        /**
+         * @param spec comma separated settings such as "depth=6" or "time=20,table=8,eval=weights.txt"
+         * @throws IOException if an evaluation weight file cannot be read
+         */
+        Player(String name, String spec) throws IOException {
+            this.name = name;
+            for (String setting : spec.split(",")) {
+                String[] pair = setting.trim().split("=");
+                if (pair.length != 2)
+                    throw new IllegalArgumentException("Bad player setting: " + setting);
+                switch (pair[0]) {
+                    case "depth":
+                        depth = Integer.parseInt(pair[1]);
+                        break;
+                    case "time":
+                        timeMs = Long.parseLong(pair[1]);
+                        break;
+                    case "table":
+                        tableMb = Integer.parseInt(pair[1]);
+                        break;
+                    case "eval":
+                        evaluator = Evaluator.load(Paths.get(pair[1]));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown player setting: " + pair[0]);
+                }
+            }
+        }
+
+        SearchEngine newEngine() {
+            SearchEngine engine = new SearchEngine(new TranspositionTable(tableMb));
+            engine.setMaxDepth(depth);
+            engine.setEvaluator(evaluator);
+            return engine;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (depth " + depth + ", " + timeMs + " ms, " + tableMb + " MB)";
+        }
+    }
+
+    private final Player first;
+    private final Player second;
+    private final List<GameRecord> openings;
+    private final int threads;
+    private int drawPlies = DEFAULT_DRAW_PLIES;
+    private int maxPlies = DEFAULT_MAX_PLIES;
+    private EndgameDatabase endgames;
+
+    //results counted from the first player's side
+    private int wins;
+    private int draws;
+    private int losses;
+    private int skipped;//games whose opening could not be played
+
+    /**
+     * @param openings start positions and moves, each played once with either player as black
+     */
+    public Tournament(Player first, Player second, List<GameRecord> openings, int threads) {
+        this.first = first;
+        this.second = second;
+        this.openings = openings;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setDrawPlies(int drawPlies) {
+        this.drawPlies = drawPlies;
+    }
+
+    public void setMaxPlies(int maxPlies) {
+        this.maxPlies = maxPlies;
+    }
+
+    /**
+     * Ends games as soon as the database knows their result.
+     */
+    public void setEndgameDatabase(EndgameDatabase endgames) {
+        this.endgames = endgames;
+    }
+
+    /**
+     * Plays every game, writing each one as it finishes and printing a summary every reportSeconds.
+     *
+     * @param out where finished games go, or null to keep only the score
+     */
+    public void run(GameRecordWriter out, int reportSeconds) throws IOException, InterruptedException {
+        int games = openings.size() * 2;
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                SearchEngine firstEngine = first.newEngine();
+                SearchEngine secondEngine = second.newEngine();
+                BoardHandler board = new BoardHandler();
+                GameRecord record = new GameRecord();
+                for (int game; (game = next.getAndIncrement()) < games; ) {
+                    boolean firstIsBlack = (game & 1) == 0;
+                    int result = play(game, openings.get(game >> 1), firstIsBlack ? firstEngine : secondEngine,
+                            firstIsBlack ? first : second, firstIsBlack ? secondEngine : firstEngine,
+                            firstIsBlack ? second : first, board, record);
+                    if (result != GameRecord.UNKNOWN)
+                        finish(result, firstIsBlack, record, out);
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        long nextReport = System.nanoTime() + reportSeconds * 1000000000L;
+        while (!pool.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+            if (System.nanoTime() >= nextReport) {
+                System.out.println(summary(start));
+                nextReport += reportSeconds * 1000000000L;
+            }
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Tournament worker failed", e.getCause());
+            }
+        }
+        System.out.println(summary(start));
+    }
+
+    /**
+     * Plays one game on from the end of the opening, recording it from the opening's start.
+     *
+     * @return a GameRecord result, or UNKNOWN if the opening has a move that is not legal and the game was skipped
+     */
+    private int play(int game, GameRecord opening, SearchEngine black, Player blackPlayer, SearchEngine white, Player whitePlayer,
+                     BoardHandler board, GameRecord record) {
+        int illegal = opening.replay(board);
+        if (illegal >= 0) {
+            skip(game, illegal);
+            return GameRecord.UNKNOWN;
+        }
+        record.copyFrom(opening);
+        record.setResult(GameRecord.UNKNOWN);
+        black.getTable().clear();
+        white.getTable().clear();
+        board.setDrawPlies(drawPlies);
+        for (int ply = 0; ; ply++) {
+            int state = board.getGameState();
+            if (state == BoardHandler.BLACK_WON)
+                return GameRecord.BLACK_WINS;
+            if (state == BoardHandler.WHITE_WON)
+                return GameRecord.WHITE_WINS;
+            if (state != BoardHandler.IN_PROGRESS || ply >= maxPlies)
+                return GameRecord.DRAW;
+            if (endgames != null) {
+                int known = endgames.probe(board);
+                if (known == EndgameDatabase.DRAW)
+                    return GameRecord.DRAW;
+                if (known != EndgameDatabase.UNKNOWN)
+                    return (known == EndgameDatabase.WIN) == board.isBlackTurn() ? GameRecord.BLACK_WINS : GameRecord.WHITE_WINS;
+            }
+            boolean blackToMove = board.isBlackTurn();
+            long move = blackToMove ? black.findBestMove(board, blackPlayer.timeMs) : white.findBestMove(board, whitePlayer.timeMs);
+            if (move == SearchEngine.NO_MOVE)
+                return blackToMove ? GameRecord.WHITE_WINS : GameRecord.BLACK_WINS;
+            record.addMove(board, move);
+            board.playMove(move);
+            board.discardUndo();
+        }
+    }
+
+    private synchronized void skip(int game, int illegal) {
+        skipped++;
+        System.err.println("Game " + game + " skipped: move " + illegal + " of opening " + (game >> 1) + " is not legal");
+    }
+
+    private synchronized void finish(int result, boolean firstIsBlack, GameRecord record, GameRecordWriter out) throws IOException {
+        record.setResult(result);
+        if (result == GameRecord.DRAW)
+            draws++;
+        else if ((result == GameRecord.BLACK_WINS) == firstIsBlack)
+            wins++;
+        else
+            losses++;
+        if (out != null) {
+            out.write(record);
+            out.flush();
+        }
+    }
+
+    /**
+     * @return score line with the Elo difference of the first player and its 95% confidence interval
+     */
+    synchronized String summary(long startNanos) {
+        int games = wins + draws + losses;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String line = String.format("%d games: +%d =%d -%d", games, wins, draws, losses);
+        if (games > 0) {
+            double score = (wins + draws * 0.5) / games;
+            double variance = (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score)
+                    + losses * score * score) / games;
+            double margin = 1.96 * Math.sqrt(variance / games);
+            line += String.format(", score %.1f%%, Elo %s [%s, %s], %.2f games/s", score * 100, elo(score),
+                    elo(score - margin), elo(score + margin), games / seconds);
+        }
+        if (skipped > 0)
+            line += ", " + skipped + " skipped";
+        return line;
+    }
+
+    static String elo(double score) {
+        if (score <= 0)
+            return "-inf";
+        if (score >= 1)
+            return "+inf";
+        return String.format("%+d", Math.round(-400 * Math.log10(1 / score - 1)));//rounded first, so never "-0"
+    }
+
+    public synchronized int getWins() {
+        return wins;
+    }
+
+    public synchronized int getDraws() {
+        return draws;
+    }
+
+    public synchronized int getLosses() {
+        return losses;
+    }
+
+    /**
+     * Makes distinct openings of random legal moves from a new game.
+     *
+     * @param plies how many random moves each opening has
+     */
+    static List<GameRecord> randomOpenings(int count, int plies, long seed) {
+        Random random = new Random(seed);
+        BoardHandler board = new BoardHandler();
+        long[] moves = new long[BoardHandler.MAX_MOVES];
+        Set<Long> seen = new HashSet<>();
+        List<GameRecord> openings = new ArrayList<>();
+        for (int attempts = 0; openings.size() < count && attempts < count * 100; attempts++) {
+            board.newGame();
+            GameRecord opening = new GameRecord();
+            opening.reset(board);
+            for (int ply = 0; ply < plies; ply++) {
+                int n = board.generateMoves(moves);
+                if (n == 0)
+                    break;
+                long move = moves[random.nextInt(n)];
+                opening.addMove(board, move);
+                board.playMove(move);
+                board.discardUndo();
+            }
+            if (board.generateMoves(moves) > 0 && seen.add(board.getHash()))
+                openings.add(opening);
+        }
+        return openings;
+    }
+
+    /**
+     * Reads openings from a PDN or game-record file, cut to the given number of plies.
+     */
+    static List<GameRecord> readOpenings(Path file, int plies) throws IOException {
+        List<GameRecord> games = new ArrayList<>();
+        if (file.getFileName().toString().toLowerCase().endsWith(".pdn")) {
+            games.addAll(Pdn.readAll(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+        } else {
+            try (GameRecordReader reader = new GameRecordReader(FileChannel.open(file, StandardOpenOption.READ))) {
+                for (GameRecord game = new GameRecord(); reader.next(game); game = new GameRecord())
+                    games.add(game);
+            }
+        }
+        for (GameRecord game : games) {
+            if (game.getMoveCount() > plies)
+                game.setMoveCount(plies);
+        }
+        return games;
+    }
+
+    /**
+     * Usage: Tournament [--first spec] [--second spec] [--openings file | --random-openings n] [--opening-plies n]
+     * [--threads n] [--draw-plies n] [--max-plies n] [--endgames file] [--out file] [--report seconds] [--seed n]
+     * <p>
+     * A player spec is a comma separated list of depth=n, time=ms, table=mb and eval=weight file.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Player first = new Player("first", "depth=6");
+        Player second = new Player("second", "depth=4");
+        Path openingFile = null;
+        int randomOpenings = 100;
+        int openingPlies = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int drawPlies = DEFAULT_DRAW_PLIES;
+        int maxPlies = DEFAULT_MAX_PLIES;
+        Path endgameFile = null;
+        Path outFile = null;
+        int reportSeconds = 10;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--first":
+                    first = new Player("first", args[++i]);
+                    break;
+                case "--second":
+                    second = new Player("second", args[++i]);
+                    break;
+                case "--openings":
+                    openingFile = Paths.get(args[++i]);
+                    break;
+                case "--random-openings":
+                    randomOpenings = Integer.parseInt(args[++i]);
+                    break;
+                case "--opening-plies":
+                    openingPlies = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--draw-plies":
+                    drawPlies = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-plies":
+                    maxPlies = Integer.parseInt(args[++i]);
+                    break;
+                case "--endgames":
+                    endgameFile = Paths.get(args[++i]);
+                    break;
+                case "--out":
+                    outFile = Paths.get(args[++i]);
+                    break;
+                case "--report":
+                    reportSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<GameRecord> openings = openingFile == null ? randomOpenings(randomOpenings, openingPlies, seed)
+                : readOpenings(openingFile, openingPlies);
+        Tournament tournament = new Tournament(first, second, openings, threads);
+        tournament.setDrawPlies(drawPlies);
+        tournament.setMaxPlies(maxPlies);
+        if (endgameFile != null)
+            tournament.setEndgameDatabase(new EndgameDatabase(endgameFile));
+        System.out.println(first + " against " + second + ": " + openings.size() * 2 + " games on " + threads + " threads.");
+        GameRecordWriter out = outFile == null ? null : new GameRecordWriter(FileChannel.open(outFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        try {
+            tournament.run(out, reportSeconds);
+        } finally {
+            if (out != null)
+                out.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * A fixed-size hash table of search results, keyed by BoardHandler's Zobrist hash.
+ *
+ * Entries live in one preallocated long[] as two slots each: the key XORed with the data, then the
+ * data itself. A reader only accepts an entry whose slots still XOR back to its key, so threads can
+ * share the table without locks and a torn write reads as a miss. A slot is overwritten when it holds
+ * a different search's entry or when the new result is at least as deep.
+ */
+public class TranspositionTable {
+    //Bound types
+    final static int EXACT = 1;
+    final static int LOWER = 2;//score is at least this, the search failed high
+    final static int UPPER = 3;//score is at most this, the search failed low
+
+    /*
+    Data layout:
+    bits 0 - 4    move start square
+    bits 5 - 9    move end square
+    bits 10 - 25  captured squares folded to 16 bits
+    bits 26 - 32  depth
+    bits 33 - 34  bound type, 0 for an empty slot
+    bits 35 - 54  score, signed
+    bits 55 - 62  search generation
+     */
+    private final static int DEPTH_SHIFT = 26;
+    private final static int BOUND_SHIFT = 33;
+    private final static int SCORE_SHIFT = 35;
+    private final static int AGE_SHIFT = 55;
+    private final static int FILL_SAMPLE = 1000;
+
+    private final long[] slots;
+    private final int mask;
+    private int age;
+
+    //Totals reported by searches when they finish, so threads never write shared counters per probe
+    private long probes;
+    private long hits;
+
+    /**
+     * @param megabytes table size, rounded down to a power of two number of entries
+     */
+    public TranspositionTable(int megabytes) {
+        long entries = Long.highestOneBit(Math.max(1024, (long) megabytes << 20 >>> 4));
+        entries = Math.min(entries, 1 << 28);
+        slots = new long[(int) entries * 2];
+        mask = (int) entries - 1;
+    }
+
+    /**
+     * Marks the start of a new search. Entries from older searches are replaced first.
+     */
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(slots, 0);
+        synchronized (this) {
+            probes = 0;
+            hits = 0;
+        }
+    }
+
+    /**
+     * @return the entry's data for the position, or 0 if there is none
+     */
+    public long probe(long hash) {
+        int i = ((int) hash & mask) << 1;
+        long data = slots[i + 1];
+        if ((slots[i] ^ data) != hash || data == 0)
+            return 0;
+        return data;
+    }
+
+    public void store(long hash, long move, int depth, int bound, int score) {
+        int i = ((int) hash & mask) << 1;
+        long old = slots[i + 1];
+        if (old != 0 && (slots[i] ^ old) != hash && ageOf(old) == age && depth < depthOf(old))
+            return;
+        long data = packMove(move)
+                | (long) Math.min(depth, 127) << DEPTH_SHIFT
+                | (long) bound << BOUND_SHIFT
+                | ((long) score & 0xFFFFF) << SCORE_SHIFT
+                | (long) age << AGE_SHIFT;
+        slots[i] = hash ^ data;
+        slots[i + 1] = data;
+    }
+
+    private static long packMove(long move) {
+        if (move == SearchEngine.NO_MOVE)
+            return 0;
+        int captures = BoardHandler.moveCaptures(move);
+        return BoardHandler.moveStart(move)
+                | BoardHandler.moveEnd(move) << 5
+                | (long) ((captures ^ captures >>> 16) & 0xFFFF) << 10;
+    }
+
+    /**
+     * @return true if the generated move is the one stored in the entry
+     */
+    static boolean isMove(long data, long move) {
+        return (data & 0x3FFFFFF) == packMove(move) && (data & 0x3FF) != 0;
+    }
+
+    static int depthOf(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 127;
+    }
+
+    static int boundOf(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+
+    static int scoreOf(long data) {
+        return (int) (data << (64 - SCORE_SHIFT - 20) >> 44);
+    }
+
+    private static int ageOf(long data) {
+        return (int) (data >>> AGE_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Adds a finished search's probe counts to the table's totals.
+     */
+    synchronized void recordProbes(long probes, long hits) {
+        this.probes += probes;
+        this.hits += hits;
+    }
+
+    /**
+     * @return share of probes that found an entry, 0 - 1
+     */
+    public synchronized double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    /**
+     * Estimates how full the table is from a sample of its first entries.
+     *
+     * @return permille of sampled entries written during the current search
+     */
+    public int getFillPermille() {
+        int sample = Math.min(FILL_SAMPLE, mask + 1);
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            long data = slots[(i << 1) + 1];
+            if (data != 0 && ageOf(data) == age)
+                used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    public synchronized long getProbes() {
+        return probes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TT(%d entries, %.1f%% hits, %d%% full)", getCapacity(), getHitRate() * 100, getFillPermille() / 10);
+    }
+}
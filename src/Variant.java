@@ -0,0 +1,118 @@
+/**
+ * Board geometry and capture rules of a draughts variant, with the tables VariantBoard moves by.
+ *
+ * Squares are numbered the way BoardHandler numbers them, row by row from the top with size / 2 playable
+ * squares per row; square 0 is [0, 1]. For every square and direction the neighboring square is
+ * precomputed, with -1 past the edge, and flying kings walk that same table as a ray. Black starts on the top
+ * rows and moves down, white starts on the bottom rows and moves up.
+ *
+ * English checkers is what BoardHandler plays on 32-bit masks and stays the fast path. VariantBoard plays
+ * any variant, English included, on 64-bit masks, which fit boards up to 10x10.
+ */
+public class Variant {
+    final static int MAX_SIZE = 10;//50 playable squares, the most a 64-bit move leaves room for
+
+    final static Variant ENGLISH = new Variant("english", 8, 3, true, false, false, false);
+    final static Variant BRAZILIAN = new Variant("brazilian", 8, 3, false, true, true, true);
+    final static Variant INTERNATIONAL = new Variant("international", 10, 4, false, true, true, true);
+    private final static Variant[] KNOWN = {ENGLISH, BRAZILIAN, INTERNATIONAL};
+
+    final String name;
+    final int size;
+    final int squares;
+    final int rows;
+    final boolean blackFirst;
+    final boolean menCaptureBackward;
+    final boolean flyingKings;
+    final boolean maximumCapture;
+
+    //neighbors[sq * 4 + direction], -1 past the edge of the board
+    final int[] neighbors;
+    final long allSquares;
+    final long blackKingRow;
+    final long whiteKingRow;
+    final long blackStart;
+    final long whiteStart;
+
+    /**
+     * @param size               squares along one side, even, 4 - MAX_SIZE
+     * @param rows               rows of men each side starts with
+     * @param blackFirst         true if black, the side at the top, makes the first move
+     * @param menCaptureBackward true if men may jump backwards as well as forwards
+     * @param flyingKings        true if kings move and jump any distance along a diagonal
+     * @param maximumCapture     true if a side has to take the capture that removes the most pieces
+     */
+    Variant(String name, int size, int rows, boolean blackFirst, boolean menCaptureBackward, boolean flyingKings,
+            boolean maximumCapture) {
+        if (size < 4 || size > MAX_SIZE || size % 2 != 0)
+            throw new IllegalArgumentException("Board size must be even and 4 - " + MAX_SIZE + ": " + size);
+        if (rows < 1 || rows * 2 >= size)
+            throw new IllegalArgumentException("Starting rows must leave an empty row in the middle: " + rows);
+        this.name = name;
+        this.size = size;
+        this.squares = size * size / 2;
+        this.rows = rows;
+        this.blackFirst = blackFirst;
+        this.menCaptureBackward = menCaptureBackward;
+        this.flyingKings = flyingKings;
+        this.maximumCapture = maximumCapture;
+
+        neighbors = new int[squares * 4];
+        int half = size / 2;
+        for (int sq = 0; sq < squares; sq++) {
+            int row = rowOf(sq);
+            int col = colOf(sq);
+            neighbors[sq * 4 + BoardHandler.UP_LEFT] = square(row - 1, col - 1);
+            neighbors[sq * 4 + BoardHandler.DOWN_LEFT] = square(row + 1, col - 1);
+            neighbors[sq * 4 + BoardHandler.DOWN_RIGHT] = square(row + 1, col + 1);
+            neighbors[sq * 4 + BoardHandler.UP_RIGHT] = square(row - 1, col + 1);
+        }
+        allSquares = (1L << squares) - 1;
+        long firstRow = (1L << half) - 1;
+        whiteKingRow = firstRow;
+        blackKingRow = firstRow << (squares - half);
+        blackStart = (1L << (rows * half)) - 1;
+        whiteStart = blackStart << (squares - rows * half);
+    }
+
+    /**
+     * @throws IllegalArgumentException if no variant has that name
+     */
+    static Variant byName(String name) {
+        for (Variant variant : KNOWN) {
+            if (variant.name.equalsIgnoreCase(name))
+                return variant;
+        }
+        throw new IllegalArgumentException("Unknown variant " + name + ", try english, brazilian or international");
+    }
+
+    /**
+     * @return true if BoardHandler plays this variant on its own
+     */
+    boolean isFastPath() {
+        return size == 8 && rows == 3 && blackFirst && !menCaptureBackward && !flyingKings && !maximumCapture;
+    }
+
+    int rowOf(int sq) {
+        return sq / (size / 2);
+    }
+
+    int colOf(int sq) {
+        int row = rowOf(sq);
+        return 2 * (sq % (size / 2)) + (row % 2 == 0 ? 1 : 0);
+    }
+
+    /**
+     * @return playable square at the coordinates, or -1 if they are off the board or on a light square
+     */
+    int square(int row, int col) {
+        if (row < 0 || row >= size || col < 0 || col >= size || (row + col) % 2 == 0)
+            return -1;
+        return row * (size / 2) + col / 2;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + size + "x" + size;
+    }
+}
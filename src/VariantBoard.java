@@ -0,0 +1,312 @@
+/**
+ * A board for any Variant, kept as three 64-bit masks over its playable squares.
+ *
+ * Moves are generated whole, multi-jumps carried to their end, by walking the variant's precomputed
+ * neighbor table. During a capture the jumped pieces stay on the board until the move is over: they block
+ * the way and cannot be jumped twice, and the moving piece's own start square counts as empty. A man is only
+ * crowned if the move ends on the far row, so in variants where men capture backwards it may pass the far row
+ * and keep jumping as a man. Nothing is allocated while generating or playing moves.
+ */
+public class VariantBoard {
+    final static int MAX_MOVES = 256;
+
+    /*
+    Moves are packed into a long:
+    bits 0 - 49   squares captured along the way
+    bits 50 - 55  start square
+    bits 56 - 61  end square
+     */
+    private final static long CAPTURE_MASK = (1L << 50) - 1;
+
+    private final Variant variant;
+    private final int[] neighbors;
+    private long blacks;
+    private long whites;
+    private long kings;
+    private boolean isBlackTurn;
+
+    //three masks and the side to move per played move
+    private long[] undo = new long[4 * 64];
+    private int undoSize;
+
+    //state of the capture search, so the recursion passes only what changes
+    private int captureStart;
+    private long captureOpponents;
+    private long captureEmpty;
+    private int captureForward;
+
+    public VariantBoard(Variant variant) {
+        this.variant = variant;
+        this.neighbors = variant.neighbors;
+        newGame();
+    }
+
+    public void newGame() {
+        setPosition(variant.blackStart, variant.whiteStart, 0, variant.blackFirst);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a square is taken by both colors or a piece is off the board
+     */
+    void setPosition(long blacks, long whites, long kings, boolean blackToMove) {
+        if ((blacks & whites) != 0 || ((blacks | whites) & ~variant.allSquares) != 0 || (kings & ~(blacks | whites)) != 0)
+            throw new IllegalArgumentException("Pieces overlap or lie off the " + variant + " board");
+        this.blacks = blacks;
+        this.whites = whites;
+        this.kings = kings;
+        this.isBlackTurn = blackToMove;
+        undoSize = 0;
+    }
+
+    /**
+     * Sets up a position from a PDN FEN tag such as "W:W31-50:B1-20", squares numbered 1 - variant.squares.
+     *
+     * @throws IllegalArgumentException if the FEN cannot be read
+     */
+    void setFen(String fen) {
+        String[] fields = fen.trim().replaceAll("^\\[FEN\\s+\"|\"\\]$|\\.$", "").split(":");
+        if (fields.length < 1 || !(fields[0].equals("B") || fields[0].equals("W")))
+            throw new IllegalArgumentException("FEN must start with the side to move: " + fen);
+        long black = 0;
+        long white = 0;
+        long king = 0;
+        for (int i = 1; i < fields.length; i++) {
+            String field = fields[i].trim();
+            if (field.isEmpty())
+                continue;
+            boolean isBlack = field.charAt(0) == 'B';
+            if (!isBlack && field.charAt(0) != 'W')
+                throw new IllegalArgumentException("Unknown color in FEN: " + field);
+            for (String token : field.substring(1).split(",")) {
+                token = token.trim();
+                if (token.isEmpty())
+                    continue;
+                boolean isKing = token.charAt(0) == 'K';
+                if (isKing)
+                    token = token.substring(1);
+                int dash = token.indexOf('-');
+                int first;
+                int last;
+                try {
+                    first = Integer.parseInt(dash < 0 ? token : token.substring(0, dash));
+                    last = dash < 0 ? first : Integer.parseInt(token.substring(dash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad square in FEN: " + token, e);
+                }
+                if (first < 1 || last > variant.squares || first > last)
+                    throw new IllegalArgumentException("Square out of range in FEN: " + token);
+                for (int number = first; number <= last; number++) {
+                    long bit = 1L << (number - 1);
+                    if (isBlack)
+                        black |= bit;
+                    else
+                        white |= bit;
+                    if (isKing)
+                        king |= bit;
+                }
+            }
+        }
+        setPosition(black, white, king, fields[0].equals("B"));
+    }
+
+    /**
+     * @return the position as a PDN FEN tag value, see {@link #setFen(String)}
+     */
+    String getFen() {
+        StringBuilder fen = new StringBuilder(isBlackTurn ? "B" : "W");
+        fen.append(":W");
+        appendFenSquares(fen, whites);
+        fen.append(":B");
+        appendFenSquares(fen, blacks);
+        return fen.toString();
+    }
+
+    private void appendFenSquares(StringBuilder fen, long pieces) {
+        boolean first = true;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            if (!first)
+                fen.append(',');
+            if ((kings & 1L << sq) != 0)
+                fen.append('K');
+            fen.append(sq + 1);
+            first = false;
+        }
+    }
+
+    /**
+     * Fills the buffer with every legal move for the side to move. When any capture is available only captures
+     * are generated, and under the maximum-capture rule only those taking the most pieces. Captures that take
+     * the same pieces between the same squares are listed once.
+     *
+     * @param moves buffer of at least MAX_MOVES entries, filled from index 0
+     * @return number of moves written
+     */
+    public int generateMoves(long[] moves) {
+        long own = isBlackTurn ? blacks : whites;
+        int forward = isBlackTurn ? BoardHandler.BLACK_DIRECTIONS : BoardHandler.WHITE_DIRECTIONS;
+        long empty = variant.allSquares & ~(blacks | whites);
+        int count = 0;
+
+        captureOpponents = isBlackTurn ? whites : blacks;
+        captureForward = forward;
+        for (long pieces = own; pieces != 0; pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            captureStart = sq;
+            captureEmpty = empty | 1L << sq;
+            count = addCaptures(sq, (kings & 1L << sq) != 0, 0, moves, count);
+        }
+        if (count > 0)
+            return variant.maximumCapture ? keepLongest(moves, count) : count;
+
+        for (long pieces = own; pieces != 0; pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            boolean king = (kings & 1L << sq) != 0;
+            int directions = king ? BoardHandler.KING_DIRECTIONS : forward;
+            for (int d = 0; d < 4; d++) {
+                if ((directions & 1 << d) == 0)
+                    continue;
+                for (int to = neighbors[sq * 4 + d]; to >= 0 && (empty & 1L << to) != 0; to = neighbors[to * 4 + d]) {
+                    moves[count++] = encodeMove(sq, to, 0);
+                    if (!king || !variant.flyingKings)
+                        break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Follows every way the piece can keep jumping from its square and adds each finished capture.
+     */
+    private int addCaptures(int from, boolean king, long captured, long[] moves, int count) {
+        boolean flying = king && variant.flyingKings;
+        int directions = king || variant.menCaptureBackward ? BoardHandler.KING_DIRECTIONS : captureForward;
+        boolean extended = false;
+        for (int d = 0; d < 4; d++) {
+            if ((directions & 1 << d) == 0)
+                continue;
+            int victim = neighbors[from * 4 + d];
+            if (flying) {
+                while (victim >= 0 && (captureEmpty & 1L << victim) != 0)
+                    victim = neighbors[victim * 4 + d];
+            }
+            if (victim < 0 || (captureOpponents & 1L << victim) == 0 || (captured & 1L << victim) != 0)
+                continue;
+            long taken = captured | 1L << victim;
+            for (int land = neighbors[victim * 4 + d]; land >= 0 && (captureEmpty & 1L << land) != 0;
+                 land = neighbors[land * 4 + d]) {
+                extended = true;
+                count = addCaptures(land, king, taken, moves, count);
+                if (!flying)
+                    break;
+            }
+        }
+        if (!extended && captured != 0) {
+            long move = encodeMove(captureStart, from, captured);
+            for (int i = 0; i < count; i++) {
+                if (moves[i] == move)
+                    return count;
+            }
+            moves[count++] = move;
+        }
+        return count;
+    }
+
+    private static int keepLongest(long[] moves, int count) {
+        int most = 0;
+        for (int i = 0; i < count; i++)
+            most = Math.max(most, Long.bitCount(moveCaptures(moves[i])));
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (Long.bitCount(moveCaptures(moves[i])) == most)
+                moves[kept++] = moves[i];
+        }
+        return kept;
+    }
+
+    /**
+     * Plays a move from {@link #generateMoves(long[])}, crowning a man that ends on the far row.
+     */
+    public void playMove(long move) {
+        if (undoSize == undo.length)
+            undo = java.util.Arrays.copyOf(undo, undoSize * 2);
+        undo[undoSize++] = blacks;
+        undo[undoSize++] = whites;
+        undo[undoSize++] = kings;
+        undo[undoSize++] = isBlackTurn ? 1 : 0;
+
+        long startBit = 1L << moveStart(move);
+        long endBit = 1L << moveEnd(move);
+        long captured = moveCaptures(move);
+        boolean king = (kings & startBit) != 0;
+        if (isBlackTurn) {
+            blacks = blacks & ~startBit | endBit;
+            whites &= ~captured;
+        } else {
+            whites = whites & ~startBit | endBit;
+            blacks &= ~captured;
+        }
+        kings &= ~(startBit | captured);
+        if (king || (endBit & (isBlackTurn ? variant.blackKingRow : variant.whiteKingRow)) != 0)
+            kings |= endBit;
+        isBlackTurn = !isBlackTurn;
+    }
+
+    /**
+     * Takes back the last move played.
+     *
+     * @throws IllegalStateException if there is nothing to take back
+     */
+    public void unmakeMove() {
+        if (undoSize == 0)
+            throw new IllegalStateException("No move to take back");
+        isBlackTurn = undo[--undoSize] != 0;
+        kings = undo[--undoSize];
+        whites = undo[--undoSize];
+        blacks = undo[--undoSize];
+    }
+
+    static long encodeMove(int start, int end, long captured) {
+        return captured | (long) start << 50 | (long) end << 56;
+    }
+
+    static int moveStart(long move) {
+        return (int) (move >>> 50) & 0x3F;
+    }
+
+    static int moveEnd(long move) {
+        return (int) (move >>> 56) & 0x3F;
+    }
+
+    static long moveCaptures(long move) {
+        return move & CAPTURE_MASK;
+    }
+
+    /**
+     * @return the move in PDN notation, such as "32-28" or "28x19"
+     */
+    static String moveToString(long move) {
+        return (moveStart(move) + 1) + (moveCaptures(move) != 0 ? "x" : "-") + (moveEnd(move) + 1);
+    }
+
+    public Variant getVariant() {
+        return variant;
+    }
+
+    public boolean isBlackTurn() {
+        return isBlackTurn;
+    }
+
+    long getBlacks() {
+        return blacks;
+    }
+
+    long getWhites() {
+        return whites;
+    }
+
+    long getKings() {
+        return kings;
+    }
+}
@@ -0,0 +1,189 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardHandlerTest {
+    /**
+     * Plays an opening into a triple jump for white and takes the jump one makeMove step at a time.
+     */
+    @Test
+    void hashFollowsEveryStepOfAMultiJump() {
+        BoardHandler board = new BoardHandler();
+        board.newGame();
+        int[][] steps = {{2, 1, 3, 0}, {5, 6, 4, 7}, {2, 3, 3, 2}, {5, 4, 4, 5}, {1, 4, 2, 3}, {6, 5, 5, 4},
+                {0, 3, 1, 4}, {5, 2, 4, 1}, {3, 0, 5, 2}};
+        for (int[] step : steps)
+            play(board, step, BoardHandler.normal);
+
+        play(board, new int[]{6, 1, 4, 3}, BoardHandler.goAgain);
+        play(board, new int[]{4, 3, 2, 1}, BoardHandler.goAgain);
+        play(board, new int[]{2, 1, 0, 3}, BoardHandler.normal);
+    }
+
+    @Test
+    void perftFromTheStartPosition() {
+        BoardHandler board = new BoardHandler();
+        board.newGame();
+        Perft bulk = new Perft(true);
+        Perft full = new Perft(false);
+        for (int depth = 1; depth <= 7; depth++) {
+            assertEquals(Perft.START_COUNTS[depth - 1], bulk.count(board, depth), "depth " + depth);
+            assertEquals(Perft.START_COUNTS[depth - 1], full.count(board, depth), "depth " + depth + " without bulk counting");
+        }
+        for (int depth = 1; depth <= 4; depth++)
+            assertEquals(Perft.START_COUNTS[depth - 1], Perft.countWithMakeMove(board, depth), "depth " + depth + " with makeMove");
+        assertEquals(0, board.getUndoDepth());
+    }
+
+    @Test
+    void perftOfInternationalDraughts() {
+        VariantBoard board = new VariantBoard(Variant.INTERNATIONAL);
+        long[][] buffers = new long[6][VariantBoard.MAX_MOVES];
+        for (int depth = 1; depth <= 5; depth++)
+            assertEquals(Perft.INTERNATIONAL_COUNTS[depth - 1], Perft.count(board, depth, buffers), "depth " + depth);
+    }
+
+    /**
+     * Two kings step back and forth; the start position comes up for the third time after eight plies.
+     */
+    @Test
+    void kingShuffleIsARepetitionDraw() {
+        BoardHandler board = new BoardHandler();
+        board.setPosition(1 << 0, 1 << 31, 1 << 0 | 1 << 31, true);
+        int[][] shuffle = {{0, 4}, {31, 26}, {4, 0}, {26, 31}};
+        for (int ply = 0; ply < 8; ply++) {
+            assertEquals(BoardHandler.IN_PROGRESS, board.getGameState(), "ply " + ply);
+            play(board, shuffle[ply % 4][0], shuffle[ply % 4][1]);
+        }
+        assertEquals(3, board.getRepetitions());
+        assertEquals(BoardHandler.REPETITION_DRAW, board.getGameState());
+    }
+
+    @Test
+    void drawPliesWithoutProgressIsADraw() {
+        BoardHandler board = new BoardHandler();
+        board.setPosition(1 << 0 | 1 << 13, 1 << 31, 1 << 0 | 1 << 31, true);
+        board.setDrawPlies(4);
+        //a man moves on the third ply and the count starts over; four king moves later the game is drawn
+        int[][] moves = {{0, 4}, {31, 27}, {13, 17}, {27, 23}, {4, 8}, {23, 19}, {8, 12}};
+        int[] counts = {1, 2, 0, 1, 2, 3, 4};
+        for (int ply = 0; ply < moves.length; ply++) {
+            assertEquals(BoardHandler.IN_PROGRESS, board.getGameState(), "ply " + ply);
+            play(board, moves[ply][0], moves[ply][1]);
+            assertEquals(counts[ply], board.getPliesSinceProgress(), "ply " + ply);
+        }
+        assertEquals(BoardHandler.NO_PROGRESS_DRAW, board.getGameState());
+    }
+
+    @Test
+    void sideWithoutAMoveLoses() {
+        BoardHandler board = new BoardHandler();
+        board.setPosition(1 << 0, 1 << 4, 1 << 0, false);//white's man is stuck under black's king
+        assertFalse(board.hasLegalMove());
+        assertEquals(BoardHandler.BLACK_WON, board.getGameState());
+        board.setPosition(1 << 0, 0, 1 << 0, false);
+        assertEquals(BoardHandler.BLACK_WON, board.getGameState());
+        board.setPosition(0, 1 << 4, 0, true);
+        assertEquals(BoardHandler.WHITE_WON, board.getGameState());
+    }
+
+    /**
+     * Plays random games, whole moves with playMove and single steps with move(), then takes every one of
+     * them back and checks each position on the way is the one it was.
+     */
+    @Test
+    void unmakeMoveRestoresEveryPosition() {
+        Random random = new Random(5);
+        BoardHandler board = new BoardHandler();
+        long[] moves = new long[BoardHandler.MAX_MOVES];
+        int multiJumps = 0;
+        int crownings = 0;
+        for (int game = 0; game < 200; game++) {
+            board.newGame();
+            List<long[]> positions = new ArrayList<>();
+            for (int ply = 0; ply < 200 && board.hasLegalMove(); ply++) {
+                positions.add(state(board));
+                int kings = Integer.bitCount(board.getKings());
+                long move = moves[random.nextInt(board.generateMoves(moves))];
+                if (board.getForceSquare() < 0 && random.nextBoolean()) {
+                    board.playMove(move);
+                    if (Integer.bitCount(BoardHandler.moveCaptures(move)) > 1)
+                        multiJumps++;
+                } else if (step(board, move) == BoardHandler.goAgain) {
+                    multiJumps++;
+                }
+                if (Integer.bitCount(board.getKings()) > kings)
+                    crownings++;
+                assertEquals(board.computeHash(), board.getHash());
+                assertEquals(board.computePieceSquareScore(), board.getPieceSquareScore());
+            }
+            for (int i = positions.size() - 1; i >= 0; i--) {
+                assertTrue(board.unmakeMove());
+                assertArrayEquals(positions.get(i), state(board), "game " + game + ", ply " + i);
+            }
+            assertFalse(board.unmakeMove());
+        }
+        assertTrue(multiJumps > 0 && crownings > 0, multiJumps + " multi-jumps, " + crownings + " crownings");
+    }
+
+    /**
+     * Makes the first step of a generated move with move(): the step itself, or a jump over one of the
+     * captured pieces next to the start square.
+     *
+     * @return the step's status code
+     */
+    private static int step(BoardHandler board, long move) {
+        int start = BoardHandler.moveStart(move);
+        int row = BoardHandler.rowOf(start);
+        int col = BoardHandler.colOf(start);
+        int color = board.pieceAt(start);
+        int captured = BoardHandler.moveCaptures(move);
+        if (captured == 0) {
+            int end = BoardHandler.moveEnd(move);
+            return BoardHandler.statusOf(board.move(color, row, col, BoardHandler.rowOf(end), BoardHandler.colOf(end)));
+        }
+        for (; captured != 0; captured &= captured - 1) {
+            int over = Integer.numberOfTrailingZeros(captured);
+            int status = BoardHandler.statusOf(board.move(color, row, col, 2 * BoardHandler.rowOf(over) - row,
+                    2 * BoardHandler.colOf(over) - col));
+            if (status >= 0)
+                return status;
+        }
+        throw new AssertionError("No first jump for " + BoardHandler.moveToString(move));
+    }
+
+    private static long[] state(BoardHandler board) {
+        return new long[]{board.getBlacks(), board.getWhites(), board.getKings(), board.getHash(), board.getForceSquare(),
+                board.getPieceSquareScore(), board.isBlackTurn() ? 1 : 0, board.getNumBlacks(), board.getNumWhites(),
+                board.getPliesSinceProgress()};
+    }
+
+    /**
+     * Plays the generated move from one square to another.
+     */
+    private static void play(BoardHandler board, int start, int end) {
+        long[] moves = new long[BoardHandler.MAX_MOVES];
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (BoardHandler.moveStart(moves[i]) == start && BoardHandler.moveEnd(moves[i]) == end) {
+                board.playMove(moves[i]);
+                return;
+            }
+        }
+        throw new AssertionError("No move from " + start + " to " + end);
+    }
+
+    private static void play(BoardHandler board, int[] step, int expected) {
+        int[] start = {step[0], step[1]};
+        int[] end = {step[2], step[3]};
+        assertEquals(expected, board.makeMove(board.getPos(start), start, end).opCode);
+        assertEquals(board.computeHash(), board.getHash(), "hash after " + java.util.Arrays.toString(step));
+    }
+}
@@ -0,0 +1,17 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EvaluatorTest {
+    @Test
+    void manOnItsCrowningRow() {
+        BoardHandler board = new BoardHandler();
+        board.setPosition(1 << 28 | 1 << 5, 1 << 10, 0, true);//black man on row 7
+        assertDoesNotThrow(() -> Evaluator.DEFAULT.evaluate(board));
+
+        BoardHandler mirrored = new BoardHandler();
+        mirrored.setPosition(1 << 21, 1 << 3 | 1 << 26, 0, false);//white man on row 0, the same position turned
+        assertEquals(Evaluator.DEFAULT.evaluate(board), Evaluator.DEFAULT.evaluate(mirrored));
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameServerTest {
+    @Test
+    void newNeverGoesPastTheSessionLimit() throws Exception {
+        try (GameServer server = new GameServer(0, 1, 10, 60000)) {
+            AtomicInteger created = new AtomicInteger();
+            CountDownLatch go = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 100; i++)
+                        if (server.handle("NEW").startsWith("OK"))
+                            created.incrementAndGet();
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            go.countDown();
+            for (Thread thread : threads)
+                thread.join();
+            assertEquals(10, created.get());
+            assertEquals(10, server.getSessionCount());
+
+            long id = server.getSessions().keySet().iterator().next();
+            assertEquals("OK", server.handle("CLOSE " + id));
+            assertEquals("ERR no such game", server.handle("CLOSE " + id));
+            assertEquals("OK", server.handle("NEW").substring(0, 2));
+            assertEquals("ERR too many games", server.handle("NEW"));
+        }
+    }
+
+    @Test
+    void everyAcknowledgedMoveSurvivesClose(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("games.journal");
+        int connections = 50;
+        int perConnection = 200;
+        GameServer server = new GameServer(0, 2, connections * perConnection, 60000);
+        server.useJournal(file, 60000);
+        long[][] ids = new long[connections][perConnection];
+        for (long[] games : ids)
+            for (int i = 0; i < perConnection; i++)
+                games[i] = Long.parseLong(server.handle("NEW").substring(3));
+        server.snapshot();//so that close() only has the moves left to write
+        server.start();
+
+        //every connection has its moves queued up when close() starts, so the loops are still working through them
+        Socket[] sockets = new Socket[connections];
+        for (int c = 0; c < connections; c++) {
+            sockets[c] = new Socket("localhost", server.getPort());
+            sockets[c].setSoTimeout(10000);
+            StringBuilder commands = new StringBuilder();
+            for (long id : ids[c])
+                commands.append("PLAY ").append(id).append(" 2 1 3 0\n");
+            sockets[c].getOutputStream().write(commands.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        server.close();
+
+        List<Long> played = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            try (Socket socket = sockets[c]) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                for (int i = 0; i < perConnection; i++) {
+                    String line = in.readLine();
+                    if (line == null)
+                        break;
+                    assertEquals("OK", line);
+                    played.add(ids[c][i]);
+                }
+            } catch (IOException ignored) {
+                //the server closed the connection
+            }
+        }
+
+        try (GameServer restarted = new GameServer(0, 1, connections * perConnection, 60000)) {
+            restarted.useJournal(file, 60000);
+            for (long id : played)
+                assertEquals(1, restarted.getSessions().get(id).getPlies(), "game " + id);
+        }
+    }
+
+    @Test
+    void restartCarriesOnWithTheSameGames(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("games.journal");
+        List<String> boards = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        try (GameServer server = new GameServer(0, 1, 100, 60000)) {
+            server.useJournal(file, 60000);
+            server.start();
+            for (int i = 0; i < 3; i++)
+                ids.add(server.handle("NEW").substring(3));
+            assertEquals("OK", server.handle("PLAY " + ids.get(0) + " 2 1 3 0"));
+            assertTrue(server.handle("MOVE " + ids.get(1) + " 2 3 3 4").startsWith("OK 0 "));
+            assertEquals("OK", server.handle("CLOSE " + ids.get(2)));
+            for (String id : ids)
+                boards.add(server.handle("BOARD " + id));
+        }
+
+        try (GameServer restarted = new GameServer(0, 1, 100, 60000)) {
+            assertEquals(2, restarted.useJournal(file, 60000));
+            restarted.start();
+            for (int i = 0; i < ids.size(); i++)
+                assertEquals(boards.get(i), restarted.handle("BOARD " + ids.get(i)));
+            assertEquals("OK " + (Long.parseLong(ids.get(2)) + 1), restarted.handle("NEW"));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GameSessionTest {
+    @Test
+    void noMoveIsAppliedOnceTheGameIsOver() {
+        long[] hashes = new long[BoardHandler.HISTORY_SIZE];
+        ByteBuffer state = ByteBuffer.allocate(GameSession.MAX_STATE_BYTES);
+        new GameSession(1).save(state, hashes);
+        //a new game that has gone the draw limit without progress
+        state.putInt(PositionCodec.POSITION_BYTES + 4, BoardHandler.DEFAULT_DRAW_PLIES);
+        state.flip();
+        GameSession session = GameSession.restore(1, state, hashes);
+        assertEquals("DRAW", session.getResult());
+
+        String fen = session.getFen();
+        assertEquals(BoardHandler.GAME_OVER, BoardHandler.reasonOf(session.move(2, 1, 3, 0)));
+        assertEquals(GameSession.GAME_OVER, session.play(2, 1, 3, 0));
+        assertEquals(fen, session.getFen());
+        assertEquals(0, session.getPlies());
+    }
+
+    @Test
+    void playTellsLegalFromIllegal() {
+        GameSession session = new GameSession(1);
+        assertEquals(GameSession.ILLEGAL, session.play(2, 1, 4, 3));
+        assertEquals(GameSession.PLAYED, session.play(2, 1, 3, 0));
+        assertEquals(1, session.getPlies());
+    }
+}
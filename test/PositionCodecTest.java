@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PositionCodecTest {
+    @Test
+    void roundTrip() {
+        BoardHandler board = new BoardHandler();
+        board.newGame();
+        byte[] bytes = new byte[PositionCodec.POSITION_BYTES];
+        PositionCodec.encode(board, bytes, 0);
+        BoardHandler decoded = new BoardHandler();
+        PositionCodec.decode(bytes, 0, decoded);
+        assertEquals(board.getHash(), decoded.getHash());
+    }
+
+    @Test
+    void forcedJumperMustBelongToTheSideToMove() {
+        byte[] bytes = encode(1 << 5, 1 << 9, 0, true);
+        bytes[12] |= 0x40 | 9;//white's square
+        assertThrows(IllegalArgumentException.class, () -> PositionCodec.decode(bytes, 0, new BoardHandler()));
+        bytes[12] = (byte) (bytes[12] & ~31 | 20);//an empty square
+        assertThrows(IllegalArgumentException.class, () -> PositionCodec.decode(bytes, 0, new BoardHandler()));
+        bytes[12] = (byte) (bytes[12] & ~31 | 5);
+        BoardHandler board = new BoardHandler();
+        PositionCodec.decode(bytes, 0, board);
+        assertEquals(5, board.getForceSquare());
+    }
+
+    @Test
+    void forcedJumperMustHaveAJump() {
+        byte[] bytes = encode(1 << 5 | 1 << 0, 1 << 9, 0, true);
+        bytes[12] |= 0x40;//square 0, whose man has nothing to jump
+        assertThrows(IllegalArgumentException.class, () -> PositionCodec.decode(bytes, 0, new BoardHandler()));
+        bytes[12] = (byte) (bytes[12] & ~31 | 5);//the man that can take
+        BoardHandler board = new BoardHandler();
+        PositionCodec.decode(bytes, 0, board);
+        assertEquals(5, board.getForceSquare());
+        assertEquals(1, board.generateMoves(new long[BoardHandler.MAX_MOVES]));
+    }
+
+    @Test
+    void menOnTheirKingRowAreRejected() {
+        byte[] black = encode(1 << 28, 1 << 10, 0, true);
+        assertThrows(IllegalArgumentException.class, () -> PositionCodec.decode(black, 0, new BoardHandler()));
+        byte[] white = encode(1 << 5, 1 << 2, 0, true);
+        assertThrows(IllegalArgumentException.class, () -> PositionCodec.decode(white, 0, new BoardHandler()));
+        byte[] kings = encode(1 << 28, 1 << 2, 1 << 28 | 1 << 2, true);
+        PositionCodec.decode(kings, 0, new BoardHandler());
+    }
+
+    private static byte[] encode(int blacks, int whites, int kings, boolean blackToMove) {
+        BoardHandler board = new BoardHandler();
+        board.setPosition(blacks, whites, kings, blackToMove);
+        byte[] bytes = new byte[PositionCodec.POSITION_BYTES];
+        PositionCodec.encode(board, bytes, 0);
+        return bytes;
+    }
+}
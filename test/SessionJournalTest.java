@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionJournalTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * Writes two games, then a later record of the second one, and returns the journal's size before that record.
+     */
+    private long writeTwoGames(Path file) throws IOException {
+        Map<Long, GameSession> sessions = new HashMap<>();
+        try (SessionJournal journal = SessionJournal.open(file, sessions)) {
+            GameSession first = new GameSession(1);
+            GameSession second = new GameSession(2);
+            first.play(2, 1, 3, 0);
+            sessions.put(1L, first);
+            sessions.put(2L, second);
+            journal.snapshot(sessions, 3);
+            long before = journal.getFileBytes();
+            second.play(2, 3, 3, 2);
+            assertEquals(1, journal.snapshot(sessions, 3));
+            return before;
+        }
+    }
+
+    @Test
+    void tornTailIsCutOff() throws IOException {
+        Path file = dir.resolve("games.journal");
+        long before = writeTwoGames(file);
+        long size = Files.size(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.setLength(size - 3);//the last record's write never finished
+        }
+
+        Map<Long, GameSession> sessions = new HashMap<>();
+        try (SessionJournal journal = SessionJournal.open(file, sessions)) {
+            assertEquals(size - 3 - before, journal.getDiscardedBytes());
+            assertEquals(before, Files.size(file));
+            assertEquals(1, sessions.get(1L).getPlies());
+            assertEquals(0, sessions.get(2L).getPlies());//back to the record before the torn one
+            assertEquals(3, journal.getNextId());
+            sessions.get(2L).play(2, 3, 3, 2);
+            journal.snapshot(sessions, 3);
+        }
+
+        //what was appended after the cut is read back
+        Map<Long, GameSession> again = new HashMap<>();
+        try (SessionJournal journal = SessionJournal.open(file, again)) {
+            assertEquals(0, journal.getDiscardedBytes());
+            assertEquals(1, again.get(2L).getPlies());
+        }
+    }
+
+    @Test
+    void recordWithABadChecksumEndsTheJournal() throws IOException {
+        Path file = dir.resolve("games.journal");
+        long before = writeTwoGames(file);
+        long size = Files.size(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(size - 1);
+            int last = raw.read();
+            raw.seek(size - 1);
+            raw.write(last ^ 1);
+        }
+
+        Map<Long, GameSession> sessions = new HashMap<>();
+        try (SessionJournal journal = SessionJournal.open(file, sessions)) {
+            assertEquals(size - before, journal.getDiscardedBytes());
+            assertEquals(2, sessions.size());
+            assertEquals(0, sessions.get(2L).getPlies());
+        }
+    }
+
+    @Test
+    void compactedJournalRestoresTheSameGames() throws IOException {
+        Path file = dir.resolve("games.journal");
+        Map<Long, GameSession> sessions = new HashMap<>();
+        String fen;
+        try (SessionJournal journal = SessionJournal.open(file, sessions)) {
+            GameSession session = new GameSession(7);
+            sessions.put(7L, session);
+            //games that come and go leave records the compaction drops
+            for (int id = 10; id < 30; id++) {
+                sessions.put((long) id, new GameSession(id));
+                journal.snapshot(sessions, 30);
+            }
+            for (int id = 10; id < 30; id++)
+                sessions.remove((long) id);
+            session.play(2, 1, 3, 0);
+            journal.snapshot(sessions, 30);
+            fen = session.getFen();
+
+            long grown = journal.getFileBytes();
+            journal.compact(sessions, 40);
+            assertTrue(journal.getFileBytes() < grown);
+            assertTrue(Files.notExists(file.resolveSibling(file.getFileName() + ".tmp")));
+        }
+
+        Map<Long, GameSession> restored = new HashMap<>();
+        try (SessionJournal journal = SessionJournal.open(file, restored)) {
+            assertEquals(0, journal.getDiscardedBytes());
+            assertEquals(40, journal.getNextId());
+            assertEquals(1, restored.size());
+            assertEquals(fen, restored.get(7L).getFen());
+            assertNull(restored.get(10L));
+        }
+    }
+}
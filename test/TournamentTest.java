@@ -0,0 +1,32 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TournamentTest {
+    @Test
+    void openingWithAnIllegalMoveIsSkipped() throws Exception {
+        List<GameRecord> openings = Tournament.randomOpenings(2, 4, 1);
+        GameRecord bad = openings.get(1);
+        //the second move repeats the first, which the other side cannot play
+        bad.setMoveCount(2);
+        bad.setCode(1, bad.getCode(0));
+        assertEquals(1, bad.replay(new BoardHandler()));
+
+        Tournament tournament = new Tournament(new Tournament.Player("a", "depth=1"),
+                new Tournament.Player("b", "depth=1"), openings, 1);
+        tournament.run(null, 3600);
+        assertEquals(2, tournament.getWins() + tournament.getDraws() + tournament.getLosses());
+        assertTrue(tournament.summary(System.nanoTime()).endsWith(", 2 skipped"));
+    }
+
+    @Test
+    void evenScoreIsPlusZeroElo() {
+        assertEquals("+0", Tournament.elo(0.5));
+        assertEquals("+0", Tournament.elo(0.4999));
+        assertEquals("+191", Tournament.elo(0.75));
+        assertEquals("-191", Tournament.elo(0.25));
+    }
+}